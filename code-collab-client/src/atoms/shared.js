@@ -1,6 +1,8 @@
 import { atom } from "jotai";
 
 export const codeAtom = atom('');
+// revision of the room's document that codeAtom was joined at; null when the server has none
+export const revisionAtom = atom(null);
 export const languageAtom = atom('javascript');
 export const inputAtom = atom('');
 export const outputAtom = atom([]);
@@ -15,12 +15,22 @@ import {
   isLoadingAtom,
   languageAtom,
   outputAtom,
+  revisionAtom,
 } from "../atoms/shared";
+import { DocumentClient } from "../sync/documentClient";
+import { fromMonacoChanges, toEdits } from "../sync/textOperation";
 
 import axios from "axios";
+import { toast } from "react-toastify";
+
+// how long chat stays paused after the server dropped messages for coming too fast
+const CHAT_BACKOFF_MS = 2000;
+// queues addressed to this session; the properties match the ones the server declares them with
+const SESSION_QUEUE = { durable: "false", "auto-delete": "true" };
 
 export default function CodeEditor() {
   const [code, setCode] = useAtom(codeAtom);
+  const [revision] = useAtom(revisionAtom);
   const [language, setLanguage] = useAtom(languageAtom);
   const [output, setOutput] = useAtom(outputAtom);
   const [input, setInput] = useAtom(inputAtom);
@@ -30,14 +40,24 @@ export default function CodeEditor() {
   const [currentButtonState, setCurrentButtonState] = useAtom(buttonStatusAtom);
 
   const [chatInput, setChatInput] = useState("");
+  const [chatPaused, setChatPaused] = useState(false);
   const [socket, setSocket] = useAtom(socketAtom);
   const [user, setUser] = useAtom(userAtom);
 
   const [isCopied, setIsCopied] = useState(false);
+  const [runId, setRunId] = useState(null);
 
   const navigate = useNavigate();
   const parms = useParams();
   const chatContainerRef = useRef(null);
+  const batchRunRef = useRef(null);
+  const [editor, setEditor] = useState(null);
+  // the same editor for handlers subscribed before it was mounted
+  const editorRef = useRef(null);
+  // the operation protocol's client; null until the editor is up, or for a server without it
+  const documentRef = useRef(null);
+  // set while the editor shows someone else's change, which must not be sent back
+  const applyingRemoteRef = useRef(false);
 
   const userColors = [
     "bg-red-500",
@@ -67,12 +87,12 @@ export default function CodeEditor() {
     }
 
     const subscription = socket.subscribe(
-      `/topic/room/${user.roomId}`,
+      `/topic/room.${user.roomId}`,
       (res) => {
         const response = JSON.parse(res.body);
         const event = response.message.event;
         if (event === "JOIN_ROOM" || event === "LEAVE_ROOM") {
-          setConnectedUsers(response.users[1]);
+          setConnectedUsers(response.users);
         } else if (event === "LANGUAGE_CHANGE") {
           setLanguage(response.language);
         } else if (event === "INPUT_CHANGE") {
@@ -80,16 +100,42 @@ export default function CodeEditor() {
         } else if (event === "CHAT_MESSAGE") {
           console.log("chat messages :" , response.chatMessage)
           setChatMessages((prev) => [...prev, response.chatMessage]);
+        } else if (event === "CODE_OPERATION") {
+          documentRef.current?.receive(response.revision, response.message.username, response.operation);
         } else if (event === "CODE_UPDATE") {
-          setCode(response.code);
+          // a whole-buffer update; the operation it became is fetched like any missed one
+          if (documentRef.current) documentRef.current.sync();
+          else if (response.message.username !== user.name) replaceEditorText(response.code);
         } else if (event === "BUTTON_STATUS") {
           console.log("Button Status Update:", response);
           setCurrentButtonState(response.value);
           setIsLoading(response.isLoading);
+        } else if (event === "EXECUTION_OUTPUT_CHUNK") {
+          // chunks of a run arrive in order; the first one replaces the previous run's output
+          setOutput((prev) =>
+            response.sequence === 0 ? [response.data] : [(prev[0] ?? "") + response.data]
+          );
         }else if (event==="EXECUTION_RESULT"){
           console.log(response.output);
           setOutput([response.output]);
           handleButtonStatus("Submit Code", false);
+        } else if (event === "EXECUTION_CASE_RESULT") {
+          // cases of a batch finish in any order; the first one replaces the previous run's output
+          const result = response.case;
+          const verdict = result.passed === null ? result.status : result.passed ? "PASSED" : "WRONG_ANSWER";
+          const first = batchRunRef.current !== response.runId;
+          batchRunRef.current = response.runId;
+          setOutput((prev) => [
+            (first ? "" : prev[0] ?? "") + `Case ${result.index + 1}: ${verdict} (${result.timeMillis} ms)\n`,
+          ]);
+        } else if (event === "EXECUTION_BATCH_RESULT") {
+          const first = batchRunRef.current !== response.runId;
+          batchRunRef.current = null;
+          setOutput((prev) => [
+            (response.output ? response.output + "\n" : "") + (first ? "" : prev[0] ?? "") +
+              `${response.verdict}: ${response.passed}/${response.total} cases passed\n`,
+          ]);
+          handleButtonStatus("Submit Code", false);
         }
       }
     );
@@ -99,6 +145,58 @@ export default function CodeEditor() {
     };
   }, [socket, user.roomId]);
 
+  useEffect(() => {
+    if (!socket || !editor || revision === null) return;
+    const client = new DocumentClient({
+      username: user.name,
+      revision,
+      send: (base, operation) =>
+        socket.publish({
+          destination: "/app/room/codeOperation",
+          body: JSON.stringify({ revision: base, operation }),
+        }),
+      apply: (operation) => applyRemoteEdits(toEdits(operation)),
+      requestSync: (base) =>
+        socket.publish({
+          destination: "/app/room/codeSync",
+          body: JSON.stringify({ revision: base }),
+        }),
+    });
+    const subscription = socket.subscribe("/user/queue/sync", (res) => {
+      const response = JSON.parse(res.body);
+      const event = response.message.event;
+      if (event === "CODE_SYNC") {
+        client.receiveSync(response.operations);
+      } else if (event === "CODE_SNAPSHOT") {
+        const lost = client.receiveSnapshot(response.revision);
+        replaceEditorText(response.code);
+        if (lost) toast.warn("Your latest edits could not be merged and were replaced by the room's code.");
+      }
+    }, SESSION_QUEUE);
+    documentRef.current = client;
+    // catches up on what was committed between joining and the editor coming up
+    client.sync();
+    return () => {
+      documentRef.current = null;
+      subscription.unsubscribe();
+    };
+  }, [socket, editor, user.roomId, user.name]);
+
+  useEffect(() => {
+    if (!socket) return;
+    const subscription = socket.subscribe("/user/queue/errors", (res) => {
+      const notice = JSON.parse(res.body);
+      if (notice.event !== "RATE_LIMITED") {
+        toast.error(notice.message || "Something went wrong.");
+        return;
+      }
+      toast.warn(notice.message);
+      setChatPaused(true);
+      setTimeout(() => setChatPaused(false), CHAT_BACKOFF_MS);
+    }, SESSION_QUEUE);
+    return () => subscription.unsubscribe();
+  }, [socket]);
+
   const handleSubmit = async () => {
     handleButtonStatus("Submitting...", true);
     axios
@@ -108,7 +206,10 @@ export default function CodeEditor() {
         roomId: user.roomId,
         input: input,
       })
-      .then(() => handleButtonStatus("Compiling...", true)) 
+      .then((res) => {
+        setRunId(res.data.runId);
+        handleButtonStatus("Compiling...", true);
+      })
       .catch((error) => {
         setOutput((prevOutput) => [
           ...prevOutput,
@@ -118,6 +219,23 @@ export default function CodeEditor() {
       });
   };
 
+  // without a run id, e.g. for a run someone else started, the room's current run stops
+  const handleCancel = () => {
+    axios
+      .post("http://localhost:8080/api/submit/cancel", {
+        roomId: user.roomId,
+        runId: runId,
+      })
+      // a run dropped before it started never sends a result
+      .then(() => handleButtonStatus("Submit Code", false))
+      .catch(() => {
+        setOutput((prevOutput) => [
+          ...prevOutput,
+          "Error cancelling the run. Please try again.",
+        ]);
+      });
+  };
+
   const handleInputChange = (e) => {
     setInput(e.target.value);
     socket.publish({
@@ -143,7 +261,14 @@ export default function CodeEditor() {
       )
     ) {
       setLanguage(value);
-      setCode(languageInitCode[value]);
+      // an edit like any other, so it reaches the room as an operation
+      if (editor) {
+        editor.executeEdits("language-change", [
+          { range: editor.getModel().getFullModelRange(), text: languageInitCode[value] },
+        ]);
+      } else {
+        setCode(languageInitCode[value]);
+      }
       socket.publish({
         destination: "/app/room/languageChange",
         body: JSON.stringify({
@@ -165,18 +290,67 @@ export default function CodeEditor() {
     });
   };
 
+  const applyRemoteEdits = (edits) => {
+    const model = editorRef.current.getModel();
+    const operations = edits.map(({ start, end, text }) => {
+      const from = model.getPositionAt(start);
+      const to = model.getPositionAt(end);
+      return {
+        range: {
+          startLineNumber: from.lineNumber,
+          startColumn: from.column,
+          endLineNumber: to.lineNumber,
+          endColumn: to.column,
+        },
+        text,
+      };
+    });
+    applyingRemoteRef.current = true;
+    try {
+      model.applyEdits(operations);
+    } finally {
+      applyingRemoteRef.current = false;
+    }
+  };
+
+  const replaceEditorText = (text) => {
+    if (!editorRef.current) {
+      setCode(text);
+      return;
+    }
+    applyingRemoteRef.current = true;
+    try {
+      editorRef.current.getModel().setValue(text);
+    } finally {
+      applyingRemoteRef.current = false;
+    }
+  };
+
   const handleEditorDidMount = (editor, monaco) => {
     console.log("editor", editor);
     console.log("monaco", monaco);
 
     if (editor) {
+      editorRef.current = editor;
+      setEditor(editor);
       editor.onDidChangeModelContent((event) => {
-        console.log("Code Updated:", editor.getValue());
-        setCode(editor.getValue());
+        const model = editor.getModel();
+        setCode(model.getValue());
+        if (applyingRemoteRef.current) return;
+        if (documentRef.current) {
+          // the changes are relative to the text before the event
+          const before = event.changes.reduce(
+            (length, change) => length - change.text.length + change.rangeLength,
+            model.getValueLength()
+          );
+          documentRef.current.applyLocal(fromMonacoChanges(event.changes, before));
+          return;
+        }
+        // a server without the operation protocol only takes whole buffers
         socket.publish({
           destination: "/app/room/codeUpdate",
           body: JSON.stringify({
-            code: editor.getValue(),
+            code: model.getValue(),
           }),
         });
       });
@@ -197,7 +371,7 @@ export default function CodeEditor() {
 
   const handleSendChat = (e) => {
     e.preventDefault();
-    if (!chatInput.trim()) return;
+    if (!chatInput.trim() || chatPaused) return;
 
     const newMessage = {
       user: user.name || "You",
@@ -348,7 +522,8 @@ export default function CodeEditor() {
             />
             <button
               type="submit"
-              className="bg-purple-500 hover:bg-purple-600 px-3 py-2 rounded-r-md"
+              disabled={chatPaused}
+              className="bg-purple-500 hover:bg-purple-600 disabled:opacity-50 px-3 py-2 rounded-r-md"
             >
               <IoSendSharp />
             </button>
@@ -359,7 +534,7 @@ export default function CodeEditor() {
           {/* Line numbers and code editor */}
           <div className="flex-1 overflow-hidden">
             <MonacoEditor
-              value={code}
+              defaultValue={code}
               language={language}
               theme="vs-dark"
               className="h-full w-full"
@@ -381,16 +556,26 @@ export default function CodeEditor() {
             {" "}
             <div className="bg-gray-800 px-4 py-2 flex items-center justify-between">
               <h3 className="text-gray-300 flex items-center">Output</h3>
-              <button
-                onClick={handleSubmit}
-                className="bg-purple-500 hover:bg-purple-600 text-white px-4 py-1 rounded-md flex items-center"
-                disabled={isLoading}
-              >
+              <div className="flex items-center">
+                <button
+                  onClick={handleSubmit}
+                  className="bg-purple-500 hover:bg-purple-600 text-white px-4 py-1 rounded-md flex items-center"
+                  disabled={isLoading}
+                >
+                  {isLoading && (
+                    <AiOutlineLoading3Quarters className="animate-spin mr-2" />
+                  )}
+                  {currentButtonState}
+                </button>
                 {isLoading && (
-                  <AiOutlineLoading3Quarters className="animate-spin mr-2" />
+                  <button
+                    onClick={handleCancel}
+                    className="bg-red-500 hover:bg-red-600 text-white px-4 py-1 rounded-md ml-2"
+                  >
+                    Stop
+                  </button>
                 )}
-                {currentButtonState}
-              </button>
+              </div>
             </div>
             <div className="flex-1 bg-gray-900 p-3 overflow-y-auto font-mono text-sm">
               {output.length > 0 ? (
@@ -9,7 +9,7 @@ import { Client } from "@stomp/stompjs";
 import { useSearchParams } from "react-router-dom";
 import { toast } from "react-toastify";
 import axios from "axios";
-import { buttonStatusAtom, chatMessagesAtom, codeAtom, inputAtom, isLoadingAtom, languageAtom, outputAtom } from "../atoms/shared";
+import { buttonStatusAtom, chatMessagesAtom, codeAtom, inputAtom, isLoadingAtom, languageAtom, outputAtom, revisionAtom } from "../atoms/shared";
 
 export default function Register() {
   const [name, setName] = useState("");
@@ -22,6 +22,7 @@ export default function Register() {
   const [socket, setSocket] = useAtom(socketAtom);
   const [connectedUsers, setConnectedUsers] = useAtom(connectedUsersAtom);
   const [code, setCode] = useAtom(codeAtom);
+  const [revision, setRevision] = useAtom(revisionAtom);
   const [input, setInput] = useAtom(inputAtom);
   const [output, setOutput] = useAtom(outputAtom);
   const [language, setLanguage] = useAtom(languageAtom);
@@ -79,9 +80,12 @@ export default function Register() {
       onConnect: () => {
         console.log("Connected to WebSocket");
 
-        client.subscribe(`/queue/errors/${name}`, (res) => {
+        // errors for this session only; the headers match the queue the server declares
+        const errors = client.subscribe("/user/queue/errors", (res) => {
           try {
             const errorMessage = JSON.parse(res.body);
+            // the editor backs off when it is rate limited
+            if (errorMessage.event === "RATE_LIMITED") return;
             console.error("Private error:", errorMessage);
             errorMessage.message
               ? toast.error(errorMessage.message)
@@ -92,9 +96,9 @@ export default function Register() {
             toast.error("An unexpected error occurred.");
             setIsLoading(false);
           }
-        });
+        }, { durable: "false", "auto-delete": "true" });
 
-        client.subscribe(`/topic/room/${roomId}`, (res) => {
+        client.subscribe(`/topic/room.${roomId}`, (res) => {
           try {
             const response = JSON.parse(res.body);
             console.log("Room response:", response);
@@ -104,6 +108,9 @@ export default function Register() {
 
             if (event === "JOIN_ROOM") {
               if (messageUsername === name) {
+                // the editor takes over the error queue; RabbitMQ would split its
+                // messages between two subscriptions
+                errors.unsubscribe();
                 console.log("language:", response.language);
                 console.log("chat messages:", response.chatMessages);
                 console.log("connected users:", response.users);
@@ -113,9 +120,10 @@ export default function Register() {
                   roomId: roomId,
                 });
                 setSocket(client);
-                setConnectedUsers(response.users[1]);
-                setChatMessages(response.chatMessages[1]);
+                setConnectedUsers(response.users);
+                setChatMessages(response.chatMessages);
                 setCode(response.code);
+                setRevision(response.revision ?? null);
                 setInput(response.input);
                 setOutput(response.output);
                 setLanguage(response.language);
@@ -127,7 +135,7 @@ export default function Register() {
                 toast.info(`${messageUsername} joined the room.`);
               }
             } else if (event === "LEAVE_ROOM") {
-              setConnectedUsers(response.users[1]);
+              setConnectedUsers(response.users);
               toast.info(`${messageUsername} left the room.`);
             }
           } catch (e) {
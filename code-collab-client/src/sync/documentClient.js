@@ -0,0 +1,90 @@
+import { TextOperation, compose, transform } from "./textOperation";
+
+// Keeps the editor in step with the room's document over the operation protocol. At most
+// one local operation is in flight ("outstanding"); edits made while it waits for its
+// acknowledgement are composed into a "buffer" that is sent once it comes back. Remote
+// operations are transformed against both before they reach the editor.
+//
+// The server acknowledges an operation by broadcasting it to the room under the sender's
+// name. Operations carry the revision they produced; one that skips a revision means
+// something was missed, and the client asks for everything since its own revision.
+export class DocumentClient {
+  constructor({ username, revision, send, apply, requestSync }) {
+    this.username = username;
+    this.revision = revision;
+    this.send = send;
+    this.apply = apply;
+    this.requestSync = requestSync;
+    this.outstanding = null;
+    this.buffer = null;
+    this.syncing = false;
+  }
+
+  // An edit made in the editor.
+  applyLocal(operation) {
+    if (operation.isNoop()) return;
+    if (this.outstanding === null) {
+      this.outstanding = operation;
+      this.send(this.revision, operation);
+    } else {
+      this.buffer = this.buffer === null ? operation : compose(this.buffer, operation);
+    }
+  }
+
+  // An operation the room committed as `revision`, from the room topic or a sync.
+  receive(revision, username, components) {
+    if (revision <= this.revision) return;
+    if (revision !== this.revision + 1) {
+      this.sync();
+      return;
+    }
+    this.revision = revision;
+    if (username === this.username && this.outstanding !== null) {
+      this.acknowledge();
+      return;
+    }
+    let operation = TextOperation.fromJSON(components);
+    if (this.outstanding !== null) {
+      [this.outstanding, operation] = transform(this.outstanding, operation);
+    }
+    if (this.buffer !== null) {
+      [this.buffer, operation] = transform(this.buffer, operation);
+    }
+    this.apply(operation);
+  }
+
+  // The operations committed after the revision a sync asked from.
+  receiveSync(operations) {
+    this.syncing = false;
+    for (const { revision, username, operation } of operations) {
+      this.receive(revision, username, operation);
+    }
+  }
+
+  // The whole document, sent when the server could not place the client's revision. Local
+  // edits that were not acknowledged yet are lost; returns whether there were any.
+  receiveSnapshot(revision) {
+    const lost = this.outstanding !== null || this.buffer !== null;
+    this.syncing = false;
+    this.revision = revision;
+    this.outstanding = null;
+    this.buffer = null;
+    return lost;
+  }
+
+  // Something changed the document without an operation, like a client that only sends
+  // whole buffers; the operations behind it are fetched.
+  sync() {
+    if (this.syncing) return;
+    this.syncing = true;
+    this.requestSync(this.revision);
+  }
+
+  acknowledge() {
+    this.outstanding = this.buffer;
+    this.buffer = null;
+    if (this.outstanding !== null) {
+      this.send(this.revision, this.outstanding);
+    }
+  }
+}
@@ -0,0 +1,247 @@
+// Client side of the server's TextOperation and OperationTransformer. An operation walks
+// the document from left to right and is sent as a plain array, e.g. [12, "foo", -3, 40]:
+// a positive number retains that many characters, a string inserts it and a negative
+// number deletes that many characters.
+
+const isRetain = (component) => typeof component === "number" && component > 0;
+const isInsert = (component) => typeof component === "string";
+const isDelete = (component) => typeof component === "number" && component < 0;
+
+export class TextOperation {
+  constructor() {
+    this.components = [];
+    this.baseLength = 0;
+    this.targetLength = 0;
+  }
+
+  static fromJSON(components) {
+    const operation = new TextOperation();
+    for (const component of components) {
+      if (isInsert(component)) operation.insert(component);
+      else if (isRetain(component)) operation.retain(component);
+      else if (isDelete(component)) operation.delete(-component);
+      else throw new Error(`Invalid operation component: ${component}`);
+    }
+    return operation;
+  }
+
+  toJSON() {
+    return this.components;
+  }
+
+  retain(count) {
+    if (count <= 0) return this;
+    this.baseLength += count;
+    this.targetLength += count;
+    const last = this.components.length - 1;
+    if (last >= 0 && isRetain(this.components[last])) this.components[last] += count;
+    else this.components.push(count);
+    return this;
+  }
+
+  insert(text) {
+    if (!text) return this;
+    this.targetLength += text.length;
+    const components = this.components;
+    const size = components.length;
+    if (size > 0 && isInsert(components[size - 1])) {
+      components[size - 1] += text;
+    } else if (size > 0 && isDelete(components[size - 1])) {
+      // keep inserts ahead of deletes so equivalent operations share one form
+      if (size > 1 && isInsert(components[size - 2])) components[size - 2] += text;
+      else components.splice(size - 1, 0, text);
+    } else {
+      components.push(text);
+    }
+    return this;
+  }
+
+  delete(count) {
+    if (count <= 0) return this;
+    this.baseLength += count;
+    const last = this.components.length - 1;
+    if (last >= 0 && isDelete(this.components[last])) this.components[last] -= count;
+    else this.components.push(-count);
+    return this;
+  }
+
+  isNoop() {
+    return this.components.length === 0 || (this.components.length === 1 && isRetain(this.components[0]));
+  }
+
+  apply(document) {
+    if (document.length !== this.baseLength) {
+      throw new Error(`Operation expects a document of length ${this.baseLength} but got ${document.length}`);
+    }
+    const parts = [];
+    let position = 0;
+    for (const component of this.components) {
+      if (isRetain(component)) {
+        parts.push(document.slice(position, position + component));
+        position += component;
+      } else if (isInsert(component)) {
+        parts.push(component);
+      } else {
+        position -= component;
+      }
+    }
+    return parts.join("");
+  }
+}
+
+// Walks the components of an operation, allowing the current one to be partially consumed.
+class Cursor {
+  constructor(operation) {
+    this.components = operation.components;
+    this.index = 0;
+    this.offset = 0;
+  }
+
+  get current() {
+    return this.components[this.index];
+  }
+
+  hasCurrent() {
+    return this.index < this.components.length;
+  }
+
+  text() {
+    return this.current.slice(this.offset);
+  }
+
+  length() {
+    const current = this.current;
+    return (isInsert(current) ? current.length : Math.abs(current)) - this.offset;
+  }
+
+  consume(count) {
+    this.offset += count;
+    if (this.length() === 0) this.advance();
+  }
+
+  advance() {
+    this.index++;
+    this.offset = 0;
+  }
+}
+
+// Transforms two operations made against the same document into [a', b'] so that
+// applying a then b' gives the same text as b then a'. Like the server, clients pass
+// their own operation first.
+export function transform(a, b) {
+  if (a.baseLength !== b.baseLength) {
+    throw new Error("Both operations must be based on the same document");
+  }
+  const aPrime = new TextOperation();
+  const bPrime = new TextOperation();
+  const first = new Cursor(a);
+  const second = new Cursor(b);
+  while (first.hasCurrent() || second.hasCurrent()) {
+    if (first.hasCurrent() && isInsert(first.current)) {
+      aPrime.insert(first.text());
+      bPrime.retain(first.text().length);
+      first.advance();
+      continue;
+    }
+    if (second.hasCurrent() && isInsert(second.current)) {
+      aPrime.retain(second.text().length);
+      bPrime.insert(second.text());
+      second.advance();
+      continue;
+    }
+    if (!first.hasCurrent() || !second.hasCurrent()) {
+      throw new Error("Operations do not cover the same document");
+    }
+    const length = Math.min(first.length(), second.length());
+    if (isRetain(first.current) && isRetain(second.current)) {
+      aPrime.retain(length);
+      bPrime.retain(length);
+    } else if (isDelete(first.current) && isRetain(second.current)) {
+      aPrime.delete(length);
+    } else if (isRetain(first.current) && isDelete(second.current)) {
+      bPrime.delete(length);
+    }
+    // when both delete the same range there is nothing left to do on either side
+    first.consume(length);
+    second.consume(length);
+  }
+  return [aPrime, bPrime];
+}
+
+// Merges two consecutive operations into one with the effect of a and then b.
+export function compose(a, b) {
+  if (a.targetLength !== b.baseLength) {
+    throw new Error("The second operation must start where the first one ends");
+  }
+  const composed = new TextOperation();
+  const first = new Cursor(a);
+  const second = new Cursor(b);
+  while (first.hasCurrent() || second.hasCurrent()) {
+    if (first.hasCurrent() && isDelete(first.current)) {
+      composed.delete(first.length());
+      first.advance();
+      continue;
+    }
+    if (second.hasCurrent() && isInsert(second.current)) {
+      composed.insert(second.text());
+      second.advance();
+      continue;
+    }
+    if (!first.hasCurrent() || !second.hasCurrent()) {
+      throw new Error("Operations cannot be composed");
+    }
+    const length = Math.min(first.length(), second.length());
+    if (isRetain(first.current) && isRetain(second.current)) {
+      composed.retain(length);
+    } else if (isInsert(first.current) && isRetain(second.current)) {
+      composed.insert(first.text().slice(0, length));
+    } else if (isRetain(first.current) && isDelete(second.current)) {
+      composed.delete(length);
+    }
+    // an insert removed again by the second operation leaves no trace
+    first.consume(length);
+    second.consume(length);
+  }
+  return composed;
+}
+
+// Builds the operation of one Monaco content change event. Its changes are all relative
+// to the text before the event, which was documentLength characters long.
+export function fromMonacoChanges(changes, documentLength) {
+  const operation = new TextOperation();
+  let position = 0;
+  for (const change of [...changes].sort((x, y) => x.rangeOffset - y.rangeOffset)) {
+    operation.retain(change.rangeOffset - position);
+    operation.insert(change.text);
+    operation.delete(change.rangeLength);
+    position = change.rangeOffset + change.rangeLength;
+  }
+  operation.retain(documentLength - position);
+  return operation;
+}
+
+// Turns an operation into edits of the text it applies to: [{start, end, text}] by
+// character offset, with an insert and the delete next to it merged into one edit.
+export function toEdits(operation) {
+  const edits = [];
+  let index = 0;
+  let open = null;
+  for (const component of operation.components) {
+    if (isRetain(component)) {
+      index += component;
+      open = null;
+      continue;
+    }
+    if (!open || open.end !== index) {
+      open = { start: index, end: index, text: "" };
+      edits.push(open);
+    }
+    if (isInsert(component)) {
+      open.text += component;
+    } else {
+      open.end -= component;
+      index -= component;
+    }
+  }
+  return edits;
+}
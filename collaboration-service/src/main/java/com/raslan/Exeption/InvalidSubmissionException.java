@@ -0,0 +1,7 @@
+package com.raslan.Exeption;
+
+public class InvalidSubmissionException extends RuntimeException{
+    public InvalidSubmissionException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.raslan.Exeption;
+
+public class StaleRevisionException extends RuntimeException{
+    public StaleRevisionException(String message) {
+        super(message);
+    }
+}
@@ -1,14 +1,17 @@
 package com.raslan.config;
 
+import com.raslan.messaging.MessageCodec;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
 import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.support.converter.ContentTypeDelegatingMessageConverter;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.MimeTypeUtils;
 
 @Configuration
 public class RabbitMQConfiguration {
@@ -37,8 +40,23 @@ public class RabbitMQConfiguration {
         return BindingBuilder.bind(executionQueue).to(directExchange).with(routingKey);
     }
 
+    /**
+     * Writes submissions in the configured format and reads any supported one, picked by
+     * the message's content type.
+     */
     @Bean
-    public MessageConverter jsonMessageConverter() {
-        return new Jackson2JsonMessageConverter();
+    public MessageConverter messageConverter(MessageCodec messageCodec) {
+        ContentTypeDelegatingMessageConverter converter = new ContentTypeDelegatingMessageConverter(
+                converter(messageCodec, messageCodec.getFormat()));
+        for (MessageCodec.Format format : MessageCodec.Format.values()) {
+            converter.addDelegate(format.getContentType(), converter(messageCodec, format));
+        }
+        return converter;
+    }
+
+    private static MessageConverter converter(MessageCodec messageCodec, MessageCodec.Format format) {
+        Jackson2JsonMessageConverter converter = new Jackson2JsonMessageConverter(messageCodec.mapper(format));
+        converter.setSupportedContentType(MimeTypeUtils.parseMimeType(format.getContentType()));
+        return converter;
     }
 }
@@ -1,12 +1,12 @@
 package com.raslan.config;
 
-import com.raslan.messaging.subscribers.EventsSubscriber;
-import com.raslan.messaging.subscribers.ExecutionResultSubscriber;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.raslan.messaging.MessageCodec;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.listener.PatternTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
@@ -33,15 +33,10 @@ public class RedisConfiguration {
     }
 
     @Bean
-    public RedisMessageListenerContainer container(
-            RedisConnectionFactory connectionFactory,
-            EventsSubscriber subscriber,
-            ExecutionResultSubscriber executionResultSubscriber
-    ) {
+    public RedisMessageListenerContainer container(RedisConnectionFactory connectionFactory) {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
-        container.addMessageListener(subscriber, new PatternTopic("room:*"));
-        container.addMessageListener(executionResultSubscriber, new PatternTopic("execution:result:*"));
+        // room and execution result channels are added per room by RoomSubscriptions
         return container;
     }
 
@@ -54,4 +49,12 @@ public class RedisConfiguration {
     public GenericJackson2JsonRedisSerializer jsonRedisSerializer() {
         return new GenericJackson2JsonRedisSerializer();
     }
+
+    /**
+     * Format of the messages this service publishes; any supported format is read.
+     */
+    @Bean
+    public MessageCodec messageCodec(ObjectMapper objectMapper, @Value("${messaging.codec}") String codec) {
+        return new MessageCodec(objectMapper, MessageCodec.Format.valueOf(codec.toUpperCase()));
+    }
 }
@@ -1,31 +1,121 @@
 package com.raslan.config;
 
+import com.raslan.messaging.BrokerMode;
+import com.raslan.messaging.SessionRateLimiter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.server.ServerHttpRequest;
-import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
-import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
-import java.util.Map;
+import java.time.Duration;
 
+/**
+ * STOMP over WebSocket, with the broker picked by {@code messaging.broker}: the in-memory
+ * simple broker, or a relay to RabbitMQ's STOMP plugin. Either way the channels between
+ * sessions and the broker run on bounded pools and keep each session's frames in order,
+ * and a session that does not take its frames within {@code send-time-limit} or lets
+ * {@code send-buffer-size-limit} pile up is closed instead of holding up the others.
+ */
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfiguration implements WebSocketMessageBrokerConfigurer {
+    private final SessionRateLimiter sessionRateLimiter;
+
+    @Value("${messaging.broker}")
+    private BrokerMode brokerMode;
+
+    @Value("${messaging.relay.host}")
+    private String relayHost;
+
+    @Value("${messaging.relay.port}")
+    private int relayPort;
+
+    @Value("${messaging.relay.login}")
+    private String relayLogin;
+
+    @Value("${messaging.relay.passcode}")
+    private String relayPasscode;
+
+    @Value("${messaging.relay.virtual-host}")
+    private String relayVirtualHost;
+
+    @Value("${messaging.channel.inbound.pool-size}")
+    private int inboundPoolSize;
+
+    @Value("${messaging.channel.outbound.pool-size}")
+    private int outboundPoolSize;
+
+    @Value("${messaging.channel.queue-capacity}")
+    private int queueCapacity;
+
+    @Value("${messaging.websocket.send-time-limit}")
+    private Duration sendTimeLimit;
+
+    @Value("${messaging.websocket.send-buffer-size-limit}")
+    private DataSize sendBufferSizeLimit;
+
+    @Value("${messaging.websocket.message-size-limit}")
+    private DataSize messageSizeLimit;
+
+    public WebSocketConfiguration(SessionRateLimiter sessionRateLimiter) {
+        this.sessionRateLimiter = sessionRateLimiter;
+    }
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic", "/queue");
+        if (brokerMode == BrokerMode.RELAY) {
+            config.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode)
+                    .setVirtualHost(relayVirtualHost);
+        } else {
+            config.enableSimpleBroker("/topic", "/queue");
+        }
         config.setApplicationDestinationPrefixes("/app");
+        config.setPreservePublishOrder(true);
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(sessionRateLimiter);
+        configure(registration, inboundPoolSize);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        configure(registration, outboundPoolSize);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit((int) sendTimeLimit.toMillis())
+                .setSendBufferSizeLimit((int) sendBufferSizeLimit.toBytes())
+                .setMessageSizeLimit((int) messageSizeLimit.toBytes());
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
+        // a session's frames are handled one after another, so the latest of a burst of
+        // state updates is also the last one applied
+        registry.setPreserveReceiveOrder(true);
         registry.addEndpoint("/ws").setAllowedOriginPatterns("*") .withSockJS();
         registry.addEndpoint("/ws").setAllowedOriginPatterns("*") ;
     }
-}
-
 
+    private void configure(ChannelRegistration registration, int poolSize) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors() * 2;
+        registration.taskExecutor()
+                .corePoolSize(threads)
+                .maxPoolSize(threads)
+                .queueCapacity(queueCapacity);
+    }
+}
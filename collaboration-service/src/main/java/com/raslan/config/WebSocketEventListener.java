@@ -1,19 +1,21 @@
 package com.raslan.config;
 
-import com.raslan.room.model.Room;
+import com.raslan.messaging.RoomBroadcaster;
+import com.raslan.messaging.RoomSubscriptions;
 import com.raslan.room.service.RoomService;
+import com.raslan.room.service.RoomWriteBehind;
 import com.raslan.room.dto.WebSocketMessage;
+import com.raslan.room.dto.events.LeaveRoomEvent;
 import com.raslan.room.enums.WebsocketEvents;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.event.EventListener;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.messaging.SessionConnectEvent;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
-import java.util.Map;
+import java.util.Set;
 
 @Component
 @Slf4j
@@ -22,7 +24,9 @@ public class WebSocketEventListener {
 
 
     private final RoomService roomService;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final RoomWriteBehind roomWriteBehind;
+    private final RoomSubscriptions roomSubscriptions;
+    private final RoomBroadcaster roomBroadcaster;
 
     @EventListener
     public void handleWebSocketConnectListener(SessionConnectEvent event) {
@@ -48,7 +52,9 @@ public class WebSocketEventListener {
                 .event(WebsocketEvents.LEAVE_ROOM)
                 .message(username + " disconnected from the room.")
                 .build();
-        Room room = roomService.leaveRoom(roomId, username);
-        messagingTemplate.convertAndSend("/topic/room/" + roomId, Map.of("message", message, "users", room.getActiveUsers()));
+        roomSubscriptions.leave(roomId, sessionId);
+        roomWriteBehind.flush(roomId);
+        Set<String> users = roomService.leaveRoom(roomId, username);
+        roomBroadcaster.publish(roomId, new LeaveRoomEvent(message, users));
     }
 }
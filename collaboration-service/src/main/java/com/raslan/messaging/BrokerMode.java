@@ -0,0 +1,18 @@
+package com.raslan.messaging;
+
+/**
+ * Where STOMP subscriptions live, set with {@code messaging.broker}.
+ */
+public enum BrokerMode {
+    /**
+     * An in-memory broker on every node. A room's events reach the sessions on other
+     * nodes through its Redis channel.
+     */
+    SIMPLE,
+    /**
+     * RabbitMQ's STOMP plugin, relayed to by every node. The broker fans events out to
+     * the sessions of all nodes; Redis only carries what the nodes themselves need, like
+     * document revisions.
+     */
+    RELAY
+}
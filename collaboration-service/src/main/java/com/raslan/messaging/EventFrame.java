@@ -0,0 +1,39 @@
+package com.raslan.messaging;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A room event as it travels over Redis: a small binary header followed by the JSON body
+ * the publisher sent its own sessions. The header carries what a subscriber needs to route
+ * the event, so the body never has to be parsed on the way through.
+ * <pre>
+ * version (1) | origin node id (16) | revision (4) | body
+ * </pre>
+ */
+public record EventFrame(UUID origin, int revision, byte[] body) {
+    public static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 1 + 16 + 4;
+
+    public byte[] encode() {
+        return ByteBuffer.allocate(HEADER_LENGTH + body.length)
+                .put(VERSION)
+                .putLong(origin.getMostSignificantBits())
+                .putLong(origin.getLeastSignificantBits())
+                .putInt(revision)
+                .put(body)
+                .array();
+    }
+
+    public static EventFrame decode(byte[] frame) {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported event frame version " + version);
+        }
+        UUID origin = new UUID(buffer.getLong(), buffer.getLong());
+        int revision = buffer.getInt();
+        return new EventFrame(origin, revision, Arrays.copyOfRange(frame, HEADER_LENGTH, frame.length));
+    }
+}
@@ -0,0 +1,113 @@
+package com.raslan.messaging;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Encodes messages exchanged with other services and nodes in the configured
+ * {@link Format}. Every format carries a header that identifies it, so a reader accepts
+ * all of them whatever it writes itself; a deployment can switch formats once every node
+ * runs a version that reads the new one. Events on their way to sessions are not encoded
+ * with it: they stay in the JSON the sessions read.
+ * <p>
+ * The execution-service builds on its own and keeps a copy of this class; a change to the
+ * formats or how they are detected goes into both.
+ */
+public class MessageCodec {
+
+    public enum Format {
+        JSON("application/json"),
+        SMILE("application/x-jackson-smile"),
+        CBOR("application/cbor");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    private final Format format;
+    private final Map<Format, ObjectMapper> mappers = new EnumMap<>(Format.class);
+
+    public MessageCodec(ObjectMapper objectMapper, Format format) {
+        this.format = format;
+        mappers.put(Format.JSON, objectMapper);
+        // Smile writes its ":)\n" header by default; CBOR needs the self-describe tag enabled
+        mappers.put(Format.SMILE, objectMapper.copyWith(new SmileFactory()));
+        mappers.put(Format.CBOR, objectMapper.copyWith(CBORFactory.builder()
+                .enable(CBORGenerator.Feature.WRITE_TYPE_HEADER)
+                .build()));
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public ObjectMapper mapper(Format format) {
+        return mappers.get(format);
+    }
+
+    public byte[] encode(Object value) {
+        try {
+            return mapper(format).writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the message as JSON, copying it token by token when it arrived in another
+     * format so no object tree is built on the way.
+     */
+    public byte[] toJson(byte[] body) {
+        Format detected = detect(body);
+        if (detected == Format.JSON) {
+            return body;
+        }
+        JsonFactory jsonFactory = mapper(Format.JSON).getFactory();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 2);
+        try (JsonParser parser = mapper(detected).getFactory().createParser(body);
+             JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static Format detect(byte[] body) {
+        if (body.length >= 3 && body[0] == ':' && body[1] == ')' && body[2] == '\n') {
+            return Format.SMILE;
+        }
+        if (body.length >= 3 && (body[0] & 0xFF) == 0xD9 && (body[1] & 0xFF) == 0xD9 && (body[2] & 0xFF) == 0xF7) {
+            return Format.CBOR;
+        }
+        for (byte b : body) {
+            if (b == '{' || b == '[') {
+                return Format.JSON;
+            }
+            if (!Character.isWhitespace(b)) {
+                break;
+            }
+        }
+        throw new IllegalArgumentException("Unrecognised message format");
+    }
+}
@@ -0,0 +1,105 @@
+package com.raslan.messaging;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.raslan.room.dto.events.RoomEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Broadcasts room events. An event is serialized once, as the JSON sessions read, handed
+ * straight to the sessions on this node and then published to Redis for the other nodes,
+ * which forward the same bytes to theirs. It is framed with this node's id so the copy
+ * that comes back is dropped by the subscriber.
+ * <p>
+ * With a {@link BrokerMode#RELAY relayed} broker, handing an event to the broker already
+ * reaches the sessions of every node, so only events that move a room's document to a new
+ * revision are published to Redis, for the other nodes' documents to follow.
+ */
+@Component
+@Slf4j
+public class RoomBroadcaster {
+    private final UUID nodeId = UUID.randomUUID();
+    private final SimpMessagingTemplate messagingTemplate;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final BrokerMode brokerMode;
+    private final Timer localTimer;
+    private final Timer relayTimer;
+
+    public RoomBroadcaster(SimpMessagingTemplate messagingTemplate,
+                           StringRedisTemplate redisTemplate,
+                           ObjectMapper objectMapper,
+                           MeterRegistry meterRegistry,
+                           @Value("${messaging.broker}") BrokerMode brokerMode) {
+        this.messagingTemplate = messagingTemplate;
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.brokerMode = brokerMode;
+        this.localTimer = Timer.builder("room.broadcast")
+                .tag("path", "local")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.relayTimer = Timer.builder("room.broadcast")
+                .tag("path", "redis")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    public void publish(String roomId, RoomEvent event) {
+        byte[] body = serialize(event);
+        localTimer.record(() -> deliver(roomId, body));
+        if (isRelayed() && event.revision() == RoomEvent.NO_REVISION) {
+            log.debug("{} event relayed to room {}", event.message().getEvent(), roomId);
+            return;
+        }
+
+        byte[] channel = RoomDestinations.roomChannel(roomId).getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new EventFrame(nodeId, event.revision(), body).encode();
+        relayTimer.record(() -> redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(channel, frame)));
+        log.debug("{} event broadcast to room {}", event.message().getEvent(), roomId);
+    }
+
+    /**
+     * Sends an already serialized JSON event to the room's sessions on this node, or on
+     * every node when the broker is relayed.
+     */
+    public void deliver(String roomId, byte[] body) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create();
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        headers.setLeaveMutable(true);
+        messagingTemplate.send(RoomDestinations.topic(roomId), MessageBuilder.createMessage(body, headers.getMessageHeaders()));
+    }
+
+    /**
+     * Whether the broker reaches every node's sessions, so events received from Redis
+     * must not be delivered again.
+     */
+    public boolean isRelayed() {
+        return brokerMode == BrokerMode.RELAY;
+    }
+
+    public boolean isOwn(UUID origin) {
+        return nodeId.equals(origin);
+    }
+
+    private byte[] serialize(RoomEvent event) {
+        try {
+            return objectMapper.writeValueAsBytes(event);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
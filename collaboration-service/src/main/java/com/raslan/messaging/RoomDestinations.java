@@ -0,0 +1,60 @@
+package com.raslan.messaging;
+
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+
+/**
+ * Names of the STOMP destinations clients subscribe to and of the Redis channels that
+ * carry a room's events between nodes. Destinations have a single segment after
+ * {@code /topic/}, which is all RabbitMQ accepts when it is relayed to.
+ * <p>
+ * Sync and error messages are meant for one session, so they go to user destinations
+ * that the session subscribes to as {@code /user/queue/...}; Spring resolves them to a
+ * queue named after the session id, which other clients cannot subscribe to by name.
+ */
+public final class RoomDestinations {
+    public static final String ERRORS = "/queue/errors";
+    public static final String SYNC = "/queue/sync";
+    private static final String ROOM_CHANNEL_PREFIX = "room:";
+    private static final String EXECUTION_RESULT_CHANNEL_PREFIX = "execution:result:";
+
+    private RoomDestinations() {
+    }
+
+    // the execution service publishes to the same topic when relaying
+    public static String topic(String roomId) {
+        return "/topic/room." + roomId;
+    }
+
+    /**
+     * Headers that address {@code convertAndSendToUser(sessionId, ...)} to that session;
+     * clients are not authenticated, so the session id stands in for the user. RabbitMQ
+     * declares the queue on the first SEND or SUBSCRIBE, and clients subscribe with the
+     * same properties so the two declarations match.
+     */
+    public static MessageHeaders toSession(String sessionId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setNativeHeader("durable", "false");
+        headers.setNativeHeader("auto-delete", "true");
+        headers.setLeaveMutable(true);
+        return headers.getMessageHeaders();
+    }
+
+    public static String roomChannel(String roomId) {
+        return ROOM_CHANNEL_PREFIX + roomId;
+    }
+
+    public static String roomIdOfChannel(String channel) {
+        return channel.substring(ROOM_CHANNEL_PREFIX.length());
+    }
+
+    public static String executionResultChannel(String roomId) {
+        return EXECUTION_RESULT_CHANNEL_PREFIX + roomId;
+    }
+
+    public static String roomIdOfExecutionResultChannel(String channel) {
+        return channel.substring(EXECUTION_RESULT_CHANNEL_PREFIX.length());
+    }
+}
@@ -0,0 +1,92 @@
+package com.raslan.messaging;
+
+import com.raslan.messaging.subscribers.EventsSubscriber;
+import com.raslan.messaging.subscribers.ExecutionResultSubscriber;
+import com.raslan.room.sync.DocumentRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Subscribes this node to the pub/sub channels of exactly the rooms it has STOMP sessions
+ * in, so a node only receives the traffic of its own rooms. The channels are subscribed
+ * with the first local session of a room and dropped with its last one.
+ * <p>
+ * With a {@link BrokerMode#RELAY relayed} broker the execution service publishes results
+ * to the rooms' STOMP topics itself, so their channels are not subscribed.
+ */
+@Component
+@Slf4j
+public class RoomSubscriptions {
+    private final RedisMessageListenerContainer container;
+    private final EventsSubscriber eventsSubscriber;
+    private final ExecutionResultSubscriber executionResultSubscriber;
+    private final DocumentRegistry documentRegistry;
+    private final boolean executionResults;
+    private final Map<String, Set<String>> sessions = new ConcurrentHashMap<>();
+
+    public RoomSubscriptions(RedisMessageListenerContainer container,
+                             EventsSubscriber eventsSubscriber,
+                             ExecutionResultSubscriber executionResultSubscriber,
+                             DocumentRegistry documentRegistry,
+                             @Value("${messaging.broker}") BrokerMode brokerMode) {
+        this.container = container;
+        this.eventsSubscriber = eventsSubscriber;
+        this.executionResultSubscriber = executionResultSubscriber;
+        this.documentRegistry = documentRegistry;
+        this.executionResults = brokerMode != BrokerMode.RELAY;
+    }
+
+    /**
+     * Registers a session in the room. Returns once this node is subscribed, so anything
+     * published to the room afterwards reaches the session.
+     */
+    public void join(String roomId, String sessionId) {
+        // subscribing inside compute keeps a concurrent leave of the same room from
+        // unsubscribing in between
+        sessions.compute(roomId, (id, local) -> {
+            if (local == null) {
+                subscribe(id);
+                local = new HashSet<>();
+            }
+            local.add(sessionId);
+            return local;
+        });
+    }
+
+    public void leave(String roomId, String sessionId) {
+        sessions.computeIfPresent(roomId, (id, local) -> {
+            local.remove(sessionId);
+            if (!local.isEmpty()) {
+                return local;
+            }
+            unsubscribe(id);
+            // without the room's events the document would silently fall behind
+            documentRegistry.evict(id);
+            return null;
+        });
+    }
+
+    private void subscribe(String roomId) {
+        container.addMessageListener(eventsSubscriber, new ChannelTopic(RoomDestinations.roomChannel(roomId)));
+        if (executionResults) {
+            container.addMessageListener(executionResultSubscriber, new ChannelTopic(RoomDestinations.executionResultChannel(roomId)));
+        }
+        log.info("Subscribed to room {}", roomId);
+    }
+
+    private void unsubscribe(String roomId) {
+        container.removeMessageListener(eventsSubscriber, new ChannelTopic(RoomDestinations.roomChannel(roomId)));
+        if (executionResults) {
+            container.removeMessageListener(executionResultSubscriber, new ChannelTopic(RoomDestinations.executionResultChannel(roomId)));
+        }
+        log.info("Unsubscribed from room {}", roomId);
+    }
+}
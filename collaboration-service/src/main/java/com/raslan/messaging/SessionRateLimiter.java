@@ -0,0 +1,117 @@
+package com.raslan.messaging;
+
+import com.raslan.room.dto.WebSocketMessage;
+import com.raslan.room.enums.WebsocketEvents;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the additive frames each WebSocket session may send, like chat messages, with a
+ * token bucket of {@code capacity} frames refilled at {@code refill-per-second}. A frame
+ * over the limit is dropped, and the session's user is told once per throttled streak on
+ * their errors topic, so a client can back off instead of having its connection closed.
+ * <p>
+ * Frames that carry a room's whole state, like the code buffer or the input, are never
+ * dropped: the {@link com.raslan.room.service.RoomEventCoalescer coalescer} already keeps
+ * only the latest of a burst of them, and dropping the last one would leave the room on a
+ * stale value. Joining, leaving and the operation protocol are not limited either.
+ */
+@Component
+@Slf4j
+public class SessionRateLimiter implements ChannelInterceptor {
+    private static final Set<String> LIMITED = Set.of("/app/room/chatMessage");
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final int capacity;
+    private final double refillPerNano;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public SessionRateLimiter(@Lazy SimpMessagingTemplate messagingTemplate,
+                              @Value("${room.rate-limit.capacity}") int capacity,
+                              @Value("${room.rate-limit.refill-per-second}") double refillPerSecond) {
+        this.messagingTemplate = messagingTemplate;
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / 1_000_000_000d;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId == null || capacity <= 0) {
+            return message;
+        }
+        if (type == SimpMessageType.DISCONNECT) {
+            buckets.remove(sessionId);
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (type != SimpMessageType.MESSAGE || !LIMITED.contains(destination)) {
+            return message;
+        }
+        Bucket bucket = buckets.computeIfAbsent(sessionId, id -> new Bucket(capacity));
+        Boolean notify = bucket.take(capacity, refillPerNano);
+        if (notify == null) {
+            return message;
+        }
+        if (notify) {
+            notifyLimited(message, sessionId, destination);
+        }
+        return null;
+    }
+
+    private void notifyLimited(Message<?> message, String sessionId, String destination) {
+        Map<String, Object> attributes = SimpMessageHeaderAccessor.getSessionAttributes(message.getHeaders());
+        String username = attributes == null ? null : (String) attributes.get("username");
+        log.info("Rate limiting session {} of {} at {}", sessionId, username, destination);
+        WebSocketMessage notice = WebSocketMessage.builder()
+                .roomId(attributes == null ? null : (String) attributes.get("roomId"))
+                .username(username)
+                .event(WebsocketEvents.RATE_LIMITED)
+                .message("Too many messages at once; some were not sent. Wait a moment and try again.")
+                .build();
+        messagingTemplate.convertAndSendToUser(sessionId, RoomDestinations.ERRORS, notice, RoomDestinations.toSession(sessionId));
+    }
+
+    private static final class Bucket {
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private boolean throttled;
+
+        Bucket(int capacity) {
+            this.tokens = capacity;
+        }
+
+        /**
+         * Takes a token.
+         *
+         * @return null when there was one, otherwise whether this is the first frame of a
+         * throttled streak
+         */
+        synchronized Boolean take(int capacity, double refillPerNano) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * refillPerNano);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens--;
+                throttled = false;
+                return null;
+            }
+            boolean first = !throttled;
+            throttled = true;
+            return first;
+        }
+    }
+}
@@ -1,37 +1,44 @@
 package com.raslan.messaging.subscribers;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.raslan.room.dto.WebSocketMessage;
+import com.raslan.messaging.EventFrame;
+import com.raslan.messaging.MessageCodec;
+import com.raslan.messaging.RoomBroadcaster;
+import com.raslan.messaging.RoomDestinations;
+import com.raslan.room.dto.events.RoomEvent;
+import com.raslan.room.sync.DocumentRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.MessageListener;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
 
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class EventsSubscriber implements MessageListener {
-    private final SimpMessagingTemplate messagingTemplate;
-    private final ObjectMapper objectMapper;
+    private final RoomBroadcaster roomBroadcaster;
+    private final DocumentRegistry documentRegistry;
+    private final MessageCodec messageCodec;
 
     @Override
     public void onMessage(Message message, byte[] pattern) {
-        String json = new String(message.getBody());
-        Map<String, Object> payload;
-        try {
-            payload = objectMapper.readValue(json, new TypeReference<>(){});
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
+        EventFrame frame = EventFrame.decode(message.getBody());
+        // events from this node were already delivered to its sessions
+        if (roomBroadcaster.isOwn(frame.origin())) {
+            return;
         }
-        WebSocketMessage msg = objectMapper.convertValue(payload.get("message"), WebSocketMessage.class);
-        log.info("Received {} message from pub/sub for room {}", msg.getEvent(), msg.getRoomId());
-        messagingTemplate.convertAndSend("/topic/room/" + msg.getRoomId(), payload);
+        String roomId = RoomDestinations.roomIdOfChannel(new String(message.getChannel(), StandardCharsets.UTF_8));
+        log.debug("Received event from pub/sub for room {}", roomId);
+        if (frame.revision() != RoomEvent.NO_REVISION) {
+            documentRegistry.observe(roomId, frame.revision());
+        }
+        if (roomBroadcaster.isRelayed()) {
+            return;
+        }
+        // JSON passes through as is; only nodes of an earlier release send another format
+        roomBroadcaster.deliver(roomId, messageCodec.toJson(frame.body()));
     }
 }
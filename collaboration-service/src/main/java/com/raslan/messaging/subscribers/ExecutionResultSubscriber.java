@@ -1,35 +1,28 @@
 package com.raslan.messaging.subscribers;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.raslan.messaging.MessageCodec;
+import com.raslan.messaging.RoomBroadcaster;
+import com.raslan.messaging.RoomDestinations;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.MessageListener;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
 
 @Component
 @Slf4j
 @RequiredArgsConstructor
 public class ExecutionResultSubscriber implements MessageListener {
-    private final SimpMessagingTemplate messagingTemplate;
-    private final ObjectMapper objectMapper;
+    private final RoomBroadcaster roomBroadcaster;
+    private final MessageCodec messageCodec;
 
     @Override
     public void onMessage(Message message, byte[] pattern) {
-        String json = new String(message.getBody());
-        Map<String, Object> payload;
-        try {
-            payload = objectMapper.readValue(json, new TypeReference<>(){});
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
-        Map<String, Object> msg = (Map<String, Object>) payload.get("message");
-        log.info("Received {} message from pub/sub for room {}", msg.get("event"), msg.get("roomId"));
-        messagingTemplate.convertAndSend("/topic/room/" + msg.get("roomId"), payload);
+        String roomId = RoomDestinations.roomIdOfExecutionResultChannel(new String(message.getChannel(), StandardCharsets.UTF_8));
+        log.debug("Received execution result from pub/sub for room {}", roomId);
+        // JSON passes through as is; only an earlier execution-service sends another format
+        roomBroadcaster.deliver(roomId, messageCodec.toJson(message.getBody()));
     }
 }
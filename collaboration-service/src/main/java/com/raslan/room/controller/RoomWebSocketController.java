@@ -1,11 +1,30 @@
 package com.raslan.room.controller;
 
-import com.raslan.messaging.RedisPublisher;
+import com.raslan.Exeption.StaleRevisionException;
+import com.raslan.messaging.RoomBroadcaster;
+import com.raslan.messaging.RoomDestinations;
+import com.raslan.messaging.RoomSubscriptions;
+import com.raslan.room.dto.CodeOperationRequest;
 import com.raslan.room.dto.WebSocketMessage;
+import com.raslan.room.dto.events.ButtonStatusEvent;
+import com.raslan.room.dto.events.ChatMessageEvent;
+import com.raslan.room.dto.events.CodeOperationEvent;
+import com.raslan.room.dto.events.CodeSnapshotEvent;
+import com.raslan.room.dto.events.CodeSyncEvent;
+import com.raslan.room.dto.events.CodeUpdateEvent;
+import com.raslan.room.dto.events.InputChangeEvent;
+import com.raslan.room.dto.events.JoinRoomEvent;
+import com.raslan.room.dto.events.LanguageChangeEvent;
+import com.raslan.room.dto.events.LeaveRoomEvent;
 import com.raslan.room.enums.WebsocketEvents;
 import com.raslan.room.model.Room;
+import com.raslan.room.model.RoomOperation;
 import com.raslan.room.model.language;
+import com.raslan.room.service.DocumentService;
+import com.raslan.room.service.RoomEventCoalescer;
 import com.raslan.room.service.RoomService;
+import com.raslan.room.service.RoomWriteBehind;
+import com.raslan.room.sync.RoomDocument;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.handler.annotation.MessageMapping;
@@ -14,9 +33,10 @@ import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Controller
@@ -25,7 +45,11 @@ import java.util.stream.Collectors;
 public class RoomWebSocketController {
     private final SimpMessagingTemplate messagingTemplate;
     private final RoomService roomService;
-    private final RedisPublisher redisPublisher;
+    private final DocumentService documentService;
+    private final RoomWriteBehind roomWriteBehind;
+    private final RoomBroadcaster roomBroadcaster;
+    private final RoomSubscriptions roomSubscriptions;
+    private final RoomEventCoalescer roomEventCoalescer;
 
     @MessageMapping("/room/join")
     public void handleJoinRoom(@Payload Map<String, String> request, SimpMessageHeaderAccessor headerAccessor) {
@@ -45,23 +69,27 @@ public class RoomWebSocketController {
         Room room;
 
         try {
+            roomSubscriptions.join(roomId, sessionId);
             room = roomService.joinRoom(username, roomId);
+            RoomDocument.Snapshot snapshot = documentService.snapshot(roomId);
             message.setEvent(WebsocketEvents.JOIN_ROOM);
             message.setMessage("User " + username + " joined room");
-            redisPublisher.publish("room:" + roomId, Map.of(
-                    "message", message,
-                    "code", room.getCode(),
-                    "language", room.getLanguage().getName(),
-                    "input", room.getInput(),
-                    "output", room.getOutput(),
-                    "users", room.getActiveUsers(),
-                    "chatMessages", room.getChatMessages()
+            roomBroadcaster.publish(roomId, new JoinRoomEvent(
+                    message,
+                    snapshot.text(),
+                    snapshot.revision(),
+                    room.getLanguage().getName(),
+                    room.getInput(),
+                    room.getOutput(),
+                    room.getActiveUsers(),
+                    room.getChatMessages()
             ));
         } catch (Exception ex) {
             log.info("Error joining room: " + ex.getMessage());
+            roomSubscriptions.leave(roomId, sessionId);
             message.setEvent("ERROR");
             message.setMessage("Unexpected error: " + ex.getMessage());
-            messagingTemplate.convertAndSend("/queue/errors/" + username, message);
+            messagingTemplate.convertAndSendToUser(sessionId, RoomDestinations.ERRORS, message, RoomDestinations.toSession(sessionId));
         }
 
     }
@@ -82,48 +110,92 @@ public class RoomWebSocketController {
                 .event(WebsocketEvents.LEAVE_ROOM)
                 .message(username + " has left the room.")
                 .build();
-        Room room = roomService.leaveRoom(roomId, username);
-        redisPublisher.publish("room:" + roomId, Map.of("message", message, "users", room.getActiveUsers()));
+        roomSubscriptions.leave(roomId, headerAccessor.getSessionId());
+        roomWriteBehind.flush(roomId);
+        Set<String> users = roomService.leaveRoom(roomId, username);
+        roomBroadcaster.publish(roomId, new LeaveRoomEvent(message, users));
     }
 
     @MessageMapping("/room/languageChange")
     public void handleLanguageChange(@Payload Map<String, String> request, SimpMessageHeaderAccessor headerAccessor) {
         String roomId = (String) headerAccessor.getSessionAttributes().get("roomId");
         WebSocketMessage message = WebSocketMessage.builder().roomId(roomId).event(WebsocketEvents.LANGUAGE_CHANGE).build();
-        Room room = roomService.getRoom(roomId);
-        room.setLanguage(language.valueOf(request.get("language").toUpperCase()));
-        roomService.setRoom(room);
-        redisPublisher.publish("room:" + roomId, Map.of("message", message, "language", request.get("language")));
+        roomService.setLanguage(roomId, language.valueOf(request.get("language").toUpperCase()));
+        roomBroadcaster.publish(roomId, new LanguageChangeEvent(message, request.get("language")));
     }
 
     @MessageMapping("/room/inputChange")
     public void handleInputChange(@Payload Map<String, String> request, SimpMessageHeaderAccessor headerAccessor) {
         String roomId = (String) headerAccessor.getSessionAttributes().get("roomId");
         WebSocketMessage message = WebSocketMessage.builder().roomId(roomId).event(WebsocketEvents.INPUT_CHANGE).build();
-        Room room = roomService.getRoom(roomId);
-        room.setInput(request.get("input"));
-        roomService.setRoom(room);
-        redisPublisher.publish("room:" + roomId, Map.of("message", message, "input", request.get("input")));
+        String input = request.get("input");
+        roomEventCoalescer.submit(roomId, WebsocketEvents.INPUT_CHANGE, () -> {
+            roomWriteBehind.input(roomId, input);
+            roomBroadcaster.publish(roomId, new InputChangeEvent(message, input));
+        });
     }
 
     @MessageMapping("/room/chatMessage")
     public void handleMessage(@Payload Map<String, Object> request, SimpMessageHeaderAccessor headerAccessor) {
         String roomId = (String) headerAccessor.getSessionAttributes().get("roomId");
         WebSocketMessage message = WebSocketMessage.builder().roomId(roomId).event(WebsocketEvents.CHAT_MESSAGE).build();
-        Room room = roomService.getRoom(roomId);
-        room.addChatMessage((Map<String, String>) request.get("chatMessage"));
-        roomService.setRoom(room);
-        redisPublisher.publish("room:" + roomId, Map.of("message", message, "chatMessage", request.get("chatMessage")));
+        Map<String, String> chatMessage = (Map<String, String>) request.get("chatMessage");
+        roomService.addChatMessage(roomId, chatMessage);
+        roomBroadcaster.publish(roomId, new ChatMessageEvent(message, chatMessage));
     }
 
     @MessageMapping("/room/codeUpdate")
     public void handleCodeUpdate(@Payload Map<String, Object> request, SimpMessageHeaderAccessor headerAccessor) {
         String roomId = (String) headerAccessor.getSessionAttributes().get("roomId");
-        WebSocketMessage message = WebSocketMessage.builder().roomId(roomId).event(WebsocketEvents.CODE_UPDATE).build();
-        Room room = roomService.getRoom(roomId);
-        room.setCode(request.get("code").toString());
-        roomService.setRoom(room);
-        redisPublisher.publish("room:" + roomId, Map.of("message", message, "code", request.get("code")));
+        String username = (String) headerAccessor.getSessionAttributes().get("username");
+        WebSocketMessage message = WebSocketMessage.builder().roomId(roomId).username(username).event(WebsocketEvents.CODE_UPDATE).build();
+        // whole-buffer updates from clients that predate the operation protocol
+        String code = request.get("code").toString();
+        roomEventCoalescer.submit(roomId, WebsocketEvents.CODE_UPDATE, () -> {
+            RoomOperation applied = documentService.replaceCode(roomId, username, code);
+            roomBroadcaster.publish(roomId, new CodeUpdateEvent(message, code, applied.revision()));
+        });
+    }
+
+    @MessageMapping("/room/codeOperation")
+    public void handleCodeOperation(@Payload CodeOperationRequest request, SimpMessageHeaderAccessor headerAccessor) {
+        String roomId = (String) headerAccessor.getSessionAttributes().get("roomId");
+        String username = (String) headerAccessor.getSessionAttributes().get("username");
+        String sessionId = headerAccessor.getSessionId();
+        WebSocketMessage message = WebSocketMessage.builder().roomId(roomId).username(username).event(WebsocketEvents.CODE_OPERATION).build();
+        try {
+            if (request.getOperation() == null || request.getRevision() == null || request.getRevision() < 0) {
+                throw new IllegalArgumentException("an operation and the revision it was made against are required");
+            }
+            RoomOperation applied = documentService.applyOperation(roomId, username, request.getRevision(), request.getOperation());
+            roomBroadcaster.publish(roomId, new CodeOperationEvent(message, applied.revision(), applied.operation()));
+        } catch (StaleRevisionException ex) {
+            log.info("Rejected operation from {} in room {}: {}", username, roomId, ex.getMessage());
+            sendSnapshot(roomId, username, sessionId);
+        } catch (IllegalArgumentException ex) {
+            message.setEvent(WebsocketEvents.ERROR);
+            message.setMessage("Invalid operation: " + ex.getMessage());
+            messagingTemplate.convertAndSendToUser(sessionId, RoomDestinations.ERRORS, message, RoomDestinations.toSession(sessionId));
+            sendSnapshot(roomId, username, sessionId);
+        }
+    }
+
+    @MessageMapping("/room/codeSync")
+    public void handleCodeSync(@Payload Map<String, Integer> request, SimpMessageHeaderAccessor headerAccessor) {
+        String roomId = (String) headerAccessor.getSessionAttributes().get("roomId");
+        String username = (String) headerAccessor.getSessionAttributes().get("username");
+        String sessionId = headerAccessor.getSessionId();
+        Integer revision = request.get("revision");
+        Optional<List<RoomOperation>> missed = revision == null
+                ? Optional.empty()
+                : documentService.operationsSince(roomId, revision);
+        if (missed.isEmpty()) {
+            sendSnapshot(roomId, username, sessionId);
+            return;
+        }
+        WebSocketMessage message = WebSocketMessage.builder().roomId(roomId).username(username).event(WebsocketEvents.CODE_SYNC).build();
+        messagingTemplate.convertAndSendToUser(sessionId, RoomDestinations.SYNC, new CodeSyncEvent(message, missed.get()),
+                RoomDestinations.toSession(sessionId));
     }
 
     @MessageMapping("/room/buttonStatus")
@@ -131,10 +203,18 @@ public class RoomWebSocketController {
         String roomId = (String) headerAccessor.getSessionAttributes().get("roomId");
         WebSocketMessage message = WebSocketMessage.builder().roomId(roomId).event(WebsocketEvents.BUTTON_STATUS).build();
         log.info("button status changed to : " + request.get("value"));
-        redisPublisher.publish("room:" + roomId, Map.of(
-                "message", message,
-                "value", request.get("value"),
-                "isLoading", request.get("isLoading"))
+        ButtonStatusEvent event = new ButtonStatusEvent(
+                message,
+                (String) request.get("value"),
+                Boolean.TRUE.equals(request.get("isLoading"))
         );
+        roomEventCoalescer.submit(roomId, WebsocketEvents.BUTTON_STATUS, () -> roomBroadcaster.publish(roomId, event));
+    }
+
+    private void sendSnapshot(String roomId, String username, String sessionId) {
+        RoomDocument.Snapshot snapshot = documentService.snapshot(roomId);
+        WebSocketMessage message = WebSocketMessage.builder().roomId(roomId).username(username).event(WebsocketEvents.CODE_SNAPSHOT).build();
+        messagingTemplate.convertAndSendToUser(sessionId, RoomDestinations.SYNC,
+                new CodeSnapshotEvent(message, snapshot.text(), snapshot.revision()), RoomDestinations.toSession(sessionId));
     }
 }
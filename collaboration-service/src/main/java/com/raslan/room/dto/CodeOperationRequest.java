@@ -0,0 +1,15 @@
+package com.raslan.room.dto;
+
+import com.raslan.room.model.TextOperation;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CodeOperationRequest {
+    // null when the client left it out, which is rejected rather than taken as revision 0
+    private Integer revision ;
+    private TextOperation operation ;
+}
@@ -0,0 +1,9 @@
+package com.raslan.room.dto.events;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.raslan.room.dto.WebSocketMessage;
+
+public record ButtonStatusEvent(WebSocketMessage message,
+                                String value,
+                                @JsonProperty("isLoading") boolean isLoading) implements RoomEvent {
+}
@@ -0,0 +1,8 @@
+package com.raslan.room.dto.events;
+
+import com.raslan.room.dto.WebSocketMessage;
+
+import java.util.Map;
+
+public record ChatMessageEvent(WebSocketMessage message, Map<String, String> chatMessage) implements RoomEvent {
+}
@@ -0,0 +1,7 @@
+package com.raslan.room.dto.events;
+
+import com.raslan.room.dto.WebSocketMessage;
+import com.raslan.room.model.TextOperation;
+
+public record CodeOperationEvent(WebSocketMessage message, int revision, TextOperation operation) implements RoomEvent {
+}
@@ -0,0 +1,6 @@
+package com.raslan.room.dto.events;
+
+import com.raslan.room.dto.WebSocketMessage;
+
+public record CodeSnapshotEvent(WebSocketMessage message, String code, int revision) implements RoomEvent {
+}
@@ -0,0 +1,9 @@
+package com.raslan.room.dto.events;
+
+import com.raslan.room.dto.WebSocketMessage;
+import com.raslan.room.model.RoomOperation;
+
+import java.util.List;
+
+public record CodeSyncEvent(WebSocketMessage message, List<RoomOperation> operations) implements RoomEvent {
+}
@@ -0,0 +1,6 @@
+package com.raslan.room.dto.events;
+
+import com.raslan.room.dto.WebSocketMessage;
+
+public record InputChangeEvent(WebSocketMessage message, String input) implements RoomEvent {
+}
@@ -0,0 +1,17 @@
+package com.raslan.room.dto.events;
+
+import com.raslan.room.dto.WebSocketMessage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public record JoinRoomEvent(WebSocketMessage message,
+                            String code,
+                            int revision,
+                            String language,
+                            String input,
+                            String output,
+                            Set<String> users,
+                            List<Map<String, String>> chatMessages) implements RoomEvent {
+}
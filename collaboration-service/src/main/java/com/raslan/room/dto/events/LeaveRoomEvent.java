@@ -0,0 +1,8 @@
+package com.raslan.room.dto.events;
+
+import com.raslan.room.dto.WebSocketMessage;
+
+import java.util.Set;
+
+public record LeaveRoomEvent(WebSocketMessage message, Set<String> users) implements RoomEvent {
+}
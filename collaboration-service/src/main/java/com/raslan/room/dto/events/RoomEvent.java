@@ -0,0 +1,21 @@
+package com.raslan.room.dto.events;
+
+import com.raslan.room.dto.WebSocketMessage;
+
+/**
+ * An event broadcast to everyone in a room. Each {@link com.raslan.room.enums.WebsocketEvents}
+ * type has its own record, serialized once by the broadcaster and sent as-is to every
+ * session.
+ */
+public interface RoomEvent {
+    int NO_REVISION = -1;
+
+    WebSocketMessage message();
+
+    /**
+     * The document revision the event brings the room to, for events that change the code.
+     */
+    default int revision() {
+        return NO_REVISION;
+    }
+}
@@ -7,9 +7,13 @@ public class WebsocketEvents {
     public static final String MESSAGE = "MESSAGE";
     public static final String CREATE_ROOM = "CREATE_ROOM";
     public static final String ERROR = "ERROR";
+    public static final String RATE_LIMITED = "RATE_LIMITED";
     public static final String INPUT_CHANGE = "INPUT_CHANGE";
     public static final String CHAT_MESSAGE = "CHAT_MESSAGE";
     public static final String CODE_UPDATE = "CODE_UPDATE";
+    public static final String CODE_OPERATION = "CODE_OPERATION";
+    public static final String CODE_SNAPSHOT = "CODE_SNAPSHOT";
+    public static final String CODE_SYNC = "CODE_SYNC";
     public static final String BUTTON_STATUS= "BUTTON_STATUS";
     public static final String OUTPUT = "OUTPUT";
 }
@@ -9,6 +9,7 @@ public class Room {
     private String id;
     private Set<String> activeUsers;
     private String code ;
+    private int revision ;
     private String input ;
     private String output ;
     private com.raslan.room.model.language language;
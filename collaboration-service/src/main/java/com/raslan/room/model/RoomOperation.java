@@ -0,0 +1,12 @@
+package com.raslan.room.model;
+
+/**
+ * An operation as committed to a room's document; {@code revision} is the document
+ * revision the operation produced.
+ */
+public record RoomOperation(
+        int revision,
+        String username,
+        TextOperation operation
+) {
+}
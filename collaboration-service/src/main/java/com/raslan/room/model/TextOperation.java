@@ -0,0 +1,182 @@
+package com.raslan.room.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An edit to the room's code expressed as a sequence of components that walk the
+ * document from left to right: a positive integer retains that many characters, a
+ * string inserts it at the current position and a negative integer deletes that many
+ * characters. On the wire it is a plain JSON array, e.g. {@code [12, "foo", -3, 40]}.
+ */
+public final class TextOperation {
+    private final List<Object> components = new ArrayList<>();
+    private int baseLength;
+    private int targetLength;
+
+    @JsonCreator
+    public static TextOperation of(List<?> components) {
+        TextOperation operation = new TextOperation();
+        for (Object component : components) {
+            if (component instanceof String text) {
+                operation.insert(text);
+            } else if (component instanceof Number number && number.intValue() > 0) {
+                operation.retain(number.intValue());
+            } else if (component instanceof Number number && number.intValue() < 0) {
+                operation.delete(-number.intValue());
+            } else {
+                throw new IllegalArgumentException("Invalid operation component: " + component);
+            }
+        }
+        return operation;
+    }
+
+    /**
+     * Builds the operation turning {@code from} into {@code to} by keeping their common
+     * prefix and suffix and replacing what lies between.
+     */
+    public static TextOperation diff(String from, String to) {
+        int prefix = 0;
+        int max = Math.min(from.length(), to.length());
+        while (prefix < max && from.charAt(prefix) == to.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < max - prefix
+                && from.charAt(from.length() - 1 - suffix) == to.charAt(to.length() - 1 - suffix)) {
+            suffix++;
+        }
+        return new TextOperation()
+                .retain(prefix)
+                .insert(to.substring(prefix, to.length() - suffix))
+                .delete(from.length() - prefix - suffix)
+                .retain(suffix);
+    }
+
+    public TextOperation retain(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Retain count must be positive");
+        }
+        if (count == 0) {
+            return this;
+        }
+        baseLength += count;
+        targetLength += count;
+        if (!components.isEmpty() && isRetain(last())) {
+            components.set(components.size() - 1, (Integer) last() + count);
+        } else {
+            components.add(count);
+        }
+        return this;
+    }
+
+    public TextOperation insert(String text) {
+        if (text.isEmpty()) {
+            return this;
+        }
+        targetLength += text.length();
+        int size = components.size();
+        if (size > 0 && isInsert(last())) {
+            components.set(size - 1, last() + text);
+        } else if (size > 0 && isDelete(last())) {
+            // keep inserts ahead of deletes so equivalent operations share one form
+            if (size > 1 && isInsert(components.get(size - 2))) {
+                components.set(size - 2, components.get(size - 2) + text);
+            } else {
+                components.add(size - 1, text);
+            }
+        } else {
+            components.add(text);
+        }
+        return this;
+    }
+
+    public TextOperation delete(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Delete count must be positive");
+        }
+        if (count == 0) {
+            return this;
+        }
+        baseLength += count;
+        if (!components.isEmpty() && isDelete(last())) {
+            components.set(components.size() - 1, (Integer) last() - count);
+        } else {
+            components.add(-count);
+        }
+        return this;
+    }
+
+    public String apply(String document) {
+        if (document.length() != baseLength) {
+            throw new IllegalArgumentException(
+                    "Operation expects a document of length " + baseLength + " but got " + document.length());
+        }
+        StringBuilder result = new StringBuilder(targetLength);
+        int position = 0;
+        for (Object component : components) {
+            if (isRetain(component)) {
+                int count = (Integer) component;
+                result.append(document, position, position + count);
+                position += count;
+            } else if (isInsert(component)) {
+                result.append((String) component);
+            } else {
+                position -= (Integer) component;
+            }
+        }
+        return result.toString();
+    }
+
+    public boolean isNoop() {
+        return components.isEmpty() || (components.size() == 1 && isRetain(components.get(0)));
+    }
+
+    @JsonValue
+    public List<Object> getComponents() {
+        return Collections.unmodifiableList(components);
+    }
+
+    public int getBaseLength() {
+        return baseLength;
+    }
+
+    public int getTargetLength() {
+        return targetLength;
+    }
+
+    public static boolean isRetain(Object component) {
+        return component instanceof Integer count && count > 0;
+    }
+
+    public static boolean isInsert(Object component) {
+        return component instanceof String;
+    }
+
+    public static boolean isDelete(Object component) {
+        return component instanceof Integer count && count < 0;
+    }
+
+    private Object last() {
+        return components.get(components.size() - 1);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TextOperation operation && components.equals(operation.components);
+    }
+
+    @Override
+    public int hashCode() {
+        return components.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return components.toString();
+    }
+}
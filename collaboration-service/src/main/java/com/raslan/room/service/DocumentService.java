@@ -0,0 +1,152 @@
+package com.raslan.room.service;
+
+import com.raslan.messaging.RoomBroadcaster;
+import com.raslan.room.dto.WebSocketMessage;
+import com.raslan.room.dto.events.CodeUpdateEvent;
+import com.raslan.room.enums.WebsocketEvents;
+import com.raslan.room.model.RoomOperation;
+import com.raslan.room.model.TextOperation;
+import com.raslan.room.sync.DocumentRegistry;
+import com.raslan.room.sync.RoomDocument;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Keeps the canonical copy of a room's code. Edits arrive as {@link TextOperation}s
+ * against a revision and are transformed by the room's {@link RoomDocument}; the Redis
+ * operation log decides their final order, so nodes editing the same room agree on every
+ * revision.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DocumentService {
+    private final RoomService roomService;
+    private final DocumentRegistry documentRegistry;
+    private final RoomWriteBehind roomWriteBehind;
+    private final RoomBroadcaster roomBroadcaster;
+
+    @Value("${room.operations.history-size}")
+    private int historySize;
+
+    public RoomOperation applyOperation(String roomId, String username, int baseRevision, TextOperation operation) {
+        int base = baseRevision;
+        TextOperation pending = operation;
+        while (true) {
+            RoomDocument document = document(roomId);
+            if (base > document.getRevision()) {
+                // the client saw revisions another node committed before this one heard of them
+                documentRegistry.evict(roomId);
+                document = document(roomId);
+            }
+            RoomDocument.Prepared prepared = document.prepare(base, pending);
+            RoomOperation candidate = new RoomOperation(prepared.revision() + 1, username, prepared.operation());
+            RoomService.CommitResult result = roomService.commitOperation(roomId, prepared.revision(), candidate, historySize);
+            if (result.committed()) {
+                document.append(candidate);
+                roomWriteBehind.code(roomId, document);
+                return candidate;
+            }
+            // another writer took this revision: catch up and transform against it
+            catchUp(roomId, document, result);
+            base = prepared.revision();
+            pending = prepared.operation();
+        }
+    }
+
+    /**
+     * Applies a whole-buffer update from a client that does not speak the operation
+     * protocol, on top of whatever revision the room is currently at.
+     */
+    public RoomOperation replaceCode(String roomId, String username, String code) {
+        RoomDocument.Snapshot snapshot = document(roomId).snapshot();
+        return applyOperation(roomId, username, snapshot.revision(), TextOperation.diff(snapshot.text(), code));
+    }
+
+    public RoomDocument.Snapshot snapshot(String roomId) {
+        return document(roomId).snapshot();
+    }
+
+    /**
+     * Returns the operations committed after {@code revision}, or empty when they are no
+     * longer in the history and the caller needs a full snapshot instead.
+     */
+    public Optional<List<RoomOperation>> operationsSince(String roomId, int revision) {
+        return document(roomId).operationsSince(revision);
+    }
+
+    private RoomDocument document(String roomId) {
+        return documentRegistry.get(roomId, this::load);
+    }
+
+    private void catchUp(String roomId, RoomDocument document, RoomService.CommitResult result) {
+        try {
+            for (RoomOperation missed : result.missed()) {
+                document.append(missed);
+            }
+        } catch (IllegalStateException ex) {
+            log.info("Document of room {} cannot catch up to revision {}, reloading", roomId, result.revision());
+            documentRegistry.evict(roomId);
+            return;
+        }
+        if (document.getRevision() < result.revision()) {
+            documentRegistry.evict(roomId);
+        }
+    }
+
+    private RoomDocument load(String roomId) {
+        // the head is read first so everything up to it is already in the log read below
+        int head = roomService.getRevision(roomId);
+        RoomDocument.Snapshot stored = roomService.getCodeSnapshot(roomId);
+        List<RoomOperation> logged = roomService.getOperations(roomId);
+
+        // history is the unbroken run of logged operations leading up to the snapshot
+        List<RoomOperation> history = new ArrayList<>();
+        List<RoomOperation> newer = new ArrayList<>();
+        for (RoomOperation operation : logged) {
+            (operation.revision() <= stored.revision() ? history : newer).add(operation);
+        }
+        int expected = stored.revision();
+        int start = history.size();
+        while (start > 0 && history.get(start - 1).revision() == expected) {
+            start--;
+            expected--;
+        }
+        RoomDocument document = new RoomDocument(stored.text(), stored.revision(), history.subList(start, history.size()), historySize);
+        for (RoomOperation operation : newer) {
+            if (operation.revision() != document.getRevision() + 1) {
+                break;
+            }
+            document.append(operation);
+        }
+        if (document.getRevision() < head) {
+            return resync(roomId, document.snapshot(), head);
+        }
+        return document;
+    }
+
+    /**
+     * Restarts a room whose log lost revisions up to {@code head} from what is left. Clients
+     * may have applied the lost revisions, so the text cannot go on as {@code head}: it
+     * becomes a revision no client has seen, and every session is told to sync, which gets
+     * it the whole document.
+     */
+    private RoomDocument resync(String roomId, RoomDocument.Snapshot recovered, int head) {
+        log.error("Room {} lost revisions {}..{}, resynchronizing every session from revision {}",
+                roomId, recovered.revision() + 1, head, head + 1);
+        int revision = roomService.resetCode(roomId, recovered.text(), head);
+        if (revision < 0) {
+            // a writer that still had the lost revisions committed meanwhile
+            return load(roomId);
+        }
+        WebSocketMessage message = WebSocketMessage.builder().roomId(roomId).event(WebsocketEvents.CODE_UPDATE).build();
+        roomBroadcaster.publish(roomId, new CodeUpdateEvent(message, recovered.text(), revision));
+        return new RoomDocument(recovered.text(), revision, List.of(), historySize);
+    }
+}
@@ -0,0 +1,96 @@
+package com.raslan.room.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces events that carry a room's whole state of something, like its input or the
+ * run button, so a burst of them costs one write and one broadcast per {@code window}
+ * instead of one per frame.
+ * <p>
+ * The first event of a kind goes through at once and opens a window; what arrives while
+ * the window is open only replaces the window's pending event, which goes through when
+ * the window closes and opens the next one. The latest value therefore always lands, at
+ * most {@code window} late.
+ */
+@Component
+@Slf4j
+public class RoomEventCoalescer {
+    private final TaskScheduler taskScheduler;
+    private final Duration window;
+    private final Map<Key, Window> windows = new ConcurrentHashMap<>();
+
+    public RoomEventCoalescer(TaskScheduler taskScheduler,
+                              @Value("${room.coalesce.window}") Duration window) {
+        this.taskScheduler = taskScheduler;
+        this.window = window;
+    }
+
+    private record Key(String roomId, String event) {
+    }
+
+    private static final class Window {
+        private Runnable pending;
+    }
+
+    /**
+     * Applies an event of the room now, or as the latest of its kind when the window
+     * closes.
+     */
+    public void submit(String roomId, String event, Runnable apply) {
+        if (window.isZero()) {
+            apply.run();
+            return;
+        }
+        Key key = new Key(roomId, event);
+        boolean[] opened = {false};
+        windows.compute(key, (k, open) -> {
+            if (open == null) {
+                opened[0] = true;
+                return new Window();
+            }
+            open.pending = apply;
+            return open;
+        });
+        if (opened[0]) {
+            try {
+                apply.run();
+            } finally {
+                scheduleClose(key);
+            }
+        }
+    }
+
+    private void scheduleClose(Key key) {
+        taskScheduler.schedule(() -> close(key), Instant.now().plus(window));
+    }
+
+    private void close(Key key) {
+        Runnable[] next = {null};
+        windows.computeIfPresent(key, (k, open) -> {
+            if (open.pending == null) {
+                return null;
+            }
+            next[0] = open.pending;
+            open.pending = null;
+            return open;
+        });
+        if (next[0] == null) {
+            return;
+        }
+        try {
+            next[0].run();
+        } catch (RuntimeException ex) {
+            log.warn("Could not apply coalesced {} of room {}: {}", key.event(), key.roomId(), ex.getMessage());
+        } finally {
+            scheduleClose(key);
+        }
+    }
+}
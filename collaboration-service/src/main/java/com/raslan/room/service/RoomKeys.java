@@ -0,0 +1,46 @@
+package com.raslan.room.service;
+
+import java.util.List;
+
+/**
+ * Redis keys holding a room's state. The scalar fields live in one hash so every handler
+ * updates just the field it changes; users, chat and the operation log get their own
+ * structures so their size never leaks into unrelated reads and writes.
+ * <p>
+ * {@code revision} is the head of the operation log while {@code code} is a snapshot taken
+ * at {@code codeRevision}; the document is the snapshot with the newer logged operations
+ * applied on top.
+ */
+public final class RoomKeys {
+    public static final String CODE = "code";
+    public static final String CODE_REVISION = "codeRevision";
+    public static final String REVISION = "revision";
+    public static final String INPUT = "input";
+    public static final String OUTPUT = "output";
+    public static final String LANGUAGE = "language";
+
+    private static final String ROOM_PREFIX = "room:";
+
+    private RoomKeys() {
+    }
+
+    public static String room(String roomId) {
+        return ROOM_PREFIX + roomId;
+    }
+
+    public static String users(String roomId) {
+        return ROOM_PREFIX + roomId + ":users";
+    }
+
+    public static String chat(String roomId) {
+        return ROOM_PREFIX + roomId + ":chat";
+    }
+
+    public static String operations(String roomId) {
+        return ROOM_PREFIX + roomId + ":ops";
+    }
+
+    public static List<String> all(String roomId) {
+        return List.of(room(roomId), users(roomId), chat(roomId), operations(roomId));
+    }
+}
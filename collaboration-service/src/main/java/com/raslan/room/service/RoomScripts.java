@@ -0,0 +1,38 @@
+package com.raslan.room.service;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Lua scripts that mutate a room atomically on the Redis side. Each script's SHA is
+ * computed once, so calls go out as EVALSHA and only fall back to sending the script
+ * body the first time a Redis node sees it.
+ */
+@SuppressWarnings("rawtypes")
+final class RoomScripts {
+    static final RedisScript<List> JOIN_ROOM = load("join_room", List.class);
+    static final RedisScript<List> GET_ROOM = load("get_room", List.class);
+    static final RedisScript<List> LEAVE_ROOM = load("leave_room", List.class);
+    static final RedisScript<Long> SET_FIELD = load("set_field", Long.class);
+    static final RedisScript<Long> APPEND_CHAT = load("append_chat", Long.class);
+    static final RedisScript<List> COMMIT_OPERATION = load("commit_operation", List.class);
+    static final RedisScript<Long> SAVE_SNAPSHOT = load("save_snapshot", Long.class);
+    static final RedisScript<Long> RESET_CODE = load("reset_code", Long.class);
+
+    private RoomScripts() {
+    }
+
+    private static <T> RedisScript<T> load(String name, Class<T> resultType) {
+        try {
+            String source = new ClassPathResource("scripts/" + name + ".lua").getContentAsString(StandardCharsets.UTF_8);
+            return RedisScript.of(source, resultType);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,27 +1,43 @@
 package com.raslan.room.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.raslan.Exeption.DuplicateResourceException;
 import com.raslan.room.model.Room;
+import com.raslan.room.model.RoomOperation;
+import com.raslan.room.model.language;
+import com.raslan.room.sync.DocumentRegistry;
+import com.raslan.room.sync.RoomDocument;
+import com.raslan.submission.service.SubmissionService;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and mutates room state in Redis. Every mutation is a single Lua script call, so
+ * concurrent handlers on any number of nodes never overwrite each other's changes.
+ */
 @Service
 @AllArgsConstructor
 @Slf4j
 public class RoomService {
 
-    private final RedisTemplate<String, Object> redisTemplate;
-    private final String ROOM_PREFIX = "room:";
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final DocumentRegistry documentRegistry;
+    private final SubmissionService submissionService;
 
-    public Room createRoom(String username, String roomId) {
-        Room room = new Room();
-        room.setId(roomId);
-        room.addUser(username);
-        redisTemplate.opsForValue().set(ROOM_PREFIX + room.getId(), room);
-        log.info("Room {} created by user {}", room.getId(), username);
-        return room;
+    public record CommitResult(boolean committed, int revision, List<RoomOperation> missed) {
     }
 
     public Room joinRoom(String username, String roomId) {
@@ -30,47 +46,204 @@ public class RoomService {
         return room;
     }
 
+    /**
+     * Reads the room in one script call. Its code is only as recent as the stored
+     * snapshot; {@link DocumentService} has the live document.
+     */
     public Room getRoom(String roomId) {
-        if (!isRoomExists(roomId)) {
+        List<?> result = redisTemplate.execute(RoomScripts.GET_ROOM,
+                List.of(RoomKeys.room(roomId), RoomKeys.users(roomId), RoomKeys.chat(roomId)));
+        if (status(result) == 0) {
             throw new RuntimeException("Room not found");
         }
-
-        return (Room) redisTemplate.opsForValue().get(ROOM_PREFIX + roomId);
+        return toRoom(roomId, result.get(1), result.get(2), result.get(3));
     }
 
     public Room joinOrCreate(String username, String roomId){
-        if(!isRoomExists(roomId)) {
-            return this.createRoom(username, roomId);
-        }
-        Room room = getRoom(roomId) ;
-        if (room.getActiveUsers().contains(username)) {
+        Room defaults = new Room();
+        List<?> result = redisTemplate.execute(RoomScripts.JOIN_ROOM,
+                List.of(RoomKeys.room(roomId), RoomKeys.users(roomId), RoomKeys.chat(roomId)),
+                username, defaults.getCode(), defaults.getInput(), defaults.getOutput(), defaults.getLanguage().name());
+        if (status(result) == 0) {
             throw new DuplicateResourceException("user name is already taken");
         }
-        room.addUser(username);
-        redisTemplate.opsForValue().set(ROOM_PREFIX + roomId, room);
-        return room ;
+        if (((Number) result.get(1)).intValue() == 1) {
+            log.info("Room {} created by user {}", roomId, username);
+        }
+        return toRoom(roomId, result.get(2), result.get(3), result.get(4));
     }
-    public Room leaveRoom(String roomId, String username) {
-        Room room = getRoom(roomId);
-        if (!room.getActiveUsers().contains(username)) {
+
+    /**
+     * Removes the user and returns who is left; the room's keys are deleted with its last
+     * user.
+     */
+    public Set<String> leaveRoom(String roomId, String username) {
+        List<?> result = redisTemplate.execute(RoomScripts.LEAVE_ROOM, RoomKeys.all(roomId), username);
+        if (status(result) == 0) {
             throw new RuntimeException("User not found in room");
         }
-        room.getActiveUsers().remove(username);
-        if (room.getActiveUsers().isEmpty()) {
-            redisTemplate.delete(ROOM_PREFIX + roomId);
+        Set<String> users = new LinkedHashSet<>(strings(result.get(1)));
+        if (users.isEmpty()) {
+            documentRegistry.evict(roomId);
+            submissionService.cancel(roomId, null);
             log.info("Room {} deleted as it is empty", roomId);
         } else {
-            redisTemplate.opsForValue().set(ROOM_PREFIX + roomId, room);
             log.info("User {} left room {}", username, roomId);
         }
-        return room;
+        return users;
+    }
+
+    /**
+     * Appends an operation to the room's log as the revision after {@code expectedRevision}.
+     * When other operations got there first nothing is written and the result carries the
+     * operations the caller has to transform against.
+     */
+    public CommitResult commitOperation(String roomId, int expectedRevision, RoomOperation operation, int historySize) {
+        List<?> result = redisTemplate.execute(RoomScripts.COMMIT_OPERATION,
+                List.of(RoomKeys.room(roomId), RoomKeys.operations(roomId)),
+                String.valueOf(expectedRevision), writeJson(operation), String.valueOf(historySize));
+        int status = status(result);
+        if (status < 0) {
+            throw new RuntimeException("Room not found");
+        }
+        int revision = ((Number) result.get(1)).intValue();
+        if (status == 1) {
+            return new CommitResult(true, revision, List.of());
+        }
+        return new CommitResult(false, revision, readOperations(strings(result.get(2))));
+    }
+
+    /**
+     * Stores a snapshot of the code; an older snapshot never replaces a newer one.
+     */
+    public void saveCode(String roomId, String code, int revision) {
+        redisTemplate.execute(RoomScripts.SAVE_SNAPSHOT, List.of(RoomKeys.room(roomId)), code, String.valueOf(revision));
+    }
+
+    /**
+     * Restarts the room's document from {@code code} as the revision after {@code head},
+     * dropping the operation log.
+     *
+     * @return the new revision, or -1 when the room is no longer at {@code head}
+     */
+    public int resetCode(String roomId, String code, int head) {
+        Long revision = redisTemplate.execute(RoomScripts.RESET_CODE,
+                List.of(RoomKeys.room(roomId), RoomKeys.operations(roomId)), String.valueOf(head), code);
+        return revision == null ? -1 : revision.intValue();
+    }
+
+    public RoomDocument.Snapshot getCodeSnapshot(String roomId) {
+        List<Object> fields = redisTemplate.opsForHash()
+                .multiGet(RoomKeys.room(roomId), List.of(RoomKeys.CODE, RoomKeys.CODE_REVISION));
+        if (fields.get(0) == null) {
+            throw new RuntimeException("Room not found");
+        }
+        return new RoomDocument.Snapshot(Integer.parseInt((String) fields.get(1)), (String) fields.get(0));
+    }
+
+    /**
+     * Returns the head revision of the room's operation log.
+     */
+    public int getRevision(String roomId) {
+        Object revision = redisTemplate.opsForHash().get(RoomKeys.room(roomId), RoomKeys.REVISION);
+        if (revision == null) {
+            throw new RuntimeException("Room not found");
+        }
+        return Integer.parseInt((String) revision);
+    }
+
+    /**
+     * Returns the room's operation log ordered by revision.
+     */
+    public List<RoomOperation> getOperations(String roomId) {
+        List<String> log = redisTemplate.opsForList().range(RoomKeys.operations(roomId), 0, -1);
+        return readOperations(log == null ? List.of() : log);
+    }
+
+    public void setInput(String roomId, String input) {
+        setField(roomId, RoomKeys.INPUT, input);
     }
 
-    public void setRoom(Room room){
-        redisTemplate.opsForValue().set(ROOM_PREFIX + room.getId(), room);
+    public void setOutput(String roomId, String output) {
+        setField(roomId, RoomKeys.OUTPUT, output);
+    }
+
+    public void setLanguage(String roomId, language language) {
+        setField(roomId, RoomKeys.LANGUAGE, language.name());
+    }
+
+    public void addChatMessage(String roomId, Map<String, String> chatMessage) {
+        Long count = redisTemplate.execute(RoomScripts.APPEND_CHAT,
+                List.of(RoomKeys.room(roomId), RoomKeys.chat(roomId)), writeJson(chatMessage));
+        if (count == null || count == 0) {
+            throw new RuntimeException("Room not found");
+        }
     }
 
     public boolean isRoomExists(String roomId) {
-        return redisTemplate.hasKey(ROOM_PREFIX + roomId);
+        return redisTemplate.hasKey(RoomKeys.room(roomId));
+    }
+
+    private void setField(String roomId, String field, String value) {
+        Long updated = redisTemplate.execute(RoomScripts.SET_FIELD, List.of(RoomKeys.room(roomId)), field, value);
+        if (updated == null || updated == 0) {
+            throw new RuntimeException("Room not found");
+        }
+    }
+
+    private Room toRoom(String roomId, Object hash, Object users, Object chat) {
+        List<String> flatHash = strings(hash);
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i + 1 < flatHash.size(); i += 2) {
+            fields.put(flatHash.get(i), flatHash.get(i + 1));
+        }
+        Room room = new Room();
+        room.setId(roomId);
+        room.setCode(fields.get(RoomKeys.CODE));
+        room.setRevision(Integer.parseInt(fields.get(RoomKeys.CODE_REVISION)));
+        room.setInput(fields.get(RoomKeys.INPUT));
+        room.setOutput(fields.get(RoomKeys.OUTPUT));
+        room.setLanguage(language.valueOf(fields.get(RoomKeys.LANGUAGE)));
+        room.setActiveUsers(new LinkedHashSet<>(strings(users)));
+        List<Map<String, String>> chatMessages = new ArrayList<>();
+        for (String entry : strings(chat)) {
+            chatMessages.add(readJson(entry, new TypeReference<>() {}));
+        }
+        room.setChatMessages(chatMessages);
+        return room;
+    }
+
+    private List<RoomOperation> readOperations(List<String> entries) {
+        List<RoomOperation> operations = new ArrayList<>();
+        for (String entry : entries) {
+            operations.add(readJson(entry, new TypeReference<RoomOperation>() {}));
+        }
+        operations.sort(Comparator.comparingInt(RoomOperation::revision));
+        return operations;
+    }
+
+    private static int status(List<?> result) {
+        return ((Number) result.get(0)).intValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> strings(Object value) {
+        return (List<String>) value;
+    }
+
+    private String writeJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private <T> T readJson(String json, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
     }
 }
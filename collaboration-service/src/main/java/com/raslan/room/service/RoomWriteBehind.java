@@ -0,0 +1,125 @@
+package com.raslan.room.service;
+
+import com.raslan.room.sync.RoomDocument;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces the per-keystroke writes of a room into one Redis write per interval, or
+ * sooner once {@code max-dirty} changes pile up. Broadcasts do not wait for it.
+ * <p>
+ * Only the code snapshot and the input are written behind. Every code operation is still
+ * committed to the operation log synchronously, and the log never drops an operation
+ * newer than the stored snapshot, so a lost snapshot costs nothing. Keeping
+ * {@code max-dirty} below the history size keeps the log within it while this node's
+ * flushes succeed; writers on several nodes or failing flushes let it grow until a
+ * snapshot is stored. An input change can be lost for at most {@code interval}.
+ */
+@Component
+@Slf4j
+public class RoomWriteBehind {
+    private final RoomService roomService;
+    private final boolean enabled;
+    private final int maxDirty;
+    private final Map<String, PendingWrite> pending = new ConcurrentHashMap<>();
+
+    public RoomWriteBehind(RoomService roomService,
+                           @Value("${room.write-behind.enabled}") boolean enabled,
+                           @Value("${room.write-behind.max-dirty}") int maxDirty,
+                           @Value("${room.operations.history-size}") int historySize) {
+        if (maxDirty >= historySize) {
+            throw new IllegalStateException("room.write-behind.max-dirty must be below room.operations.history-size");
+        }
+        this.roomService = roomService;
+        this.enabled = enabled;
+        this.maxDirty = maxDirty;
+    }
+
+    /**
+     * The room's document has changed; its latest snapshot is stored on the next flush.
+     */
+    public void code(String roomId, RoomDocument document) {
+        mark(roomId, new PendingWrite(document, null, 1));
+    }
+
+    public void input(String roomId, String input) {
+        mark(roomId, new PendingWrite(null, input, 1));
+    }
+
+    /**
+     * Writes whatever is pending for the room right away.
+     */
+    public void flush(String roomId) {
+        // the write happens inside compute so two flushes of a room never race each other
+        // into storing an older input over a newer one
+        pending.computeIfPresent(roomId, (id, write) -> {
+            try {
+                write(id, write);
+                return null;
+            } catch (RuntimeException ex) {
+                if (!exists(id)) {
+                    return null;
+                }
+                log.warn("Could not persist room {}, will retry: {}", id, ex.getMessage());
+                return write;
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${room.write-behind.interval}")
+    public void flushAll() {
+        for (String roomId : new ArrayList<>(pending.keySet())) {
+            flush(roomId);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushAll();
+        if (!pending.isEmpty()) {
+            log.error("Shutting down with unsaved changes in rooms {}", pending.keySet());
+        }
+    }
+
+    private void mark(String roomId, PendingWrite change) {
+        PendingWrite write = pending.merge(roomId, change, PendingWrite::merge);
+        if (!enabled || write.dirty() >= maxDirty) {
+            flush(roomId);
+        }
+    }
+
+    private void write(String roomId, PendingWrite write) {
+        if (write.document() != null) {
+            RoomDocument.Snapshot snapshot = write.document().snapshot();
+            roomService.saveCode(roomId, snapshot.text(), snapshot.revision());
+        }
+        if (write.input() != null) {
+            roomService.setInput(roomId, write.input());
+        }
+    }
+
+    private boolean exists(String roomId) {
+        try {
+            return roomService.isRoomExists(roomId);
+        } catch (RuntimeException ex) {
+            return true;
+        }
+    }
+
+    private record PendingWrite(RoomDocument document, String input, int dirty) {
+
+        PendingWrite merge(PendingWrite newer) {
+            return new PendingWrite(
+                    newer.document != null ? newer.document : document,
+                    newer.input != null ? newer.input : input,
+                    dirty + newer.dirty);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.raslan.room.sync;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Holds the {@link RoomDocument} of every room this node is serving edits for: the
+ * near-cache of room state, since the document is what every edit, sync and join reads.
+ * Handlers write the rest of a room straight to Redis with one script and never read it
+ * back, and a join reads it once.
+ * <p>
+ * A document stays coherent across nodes through the revisions of the room's events,
+ * which this node receives for exactly the rooms it holds; one that falls behind is
+ * dropped and reloaded on its next read. Documents are dropped with the room's last
+ * local session, so the cache holds no more rooms than this node has sessions in. Hits,
+ * misses, evictions and size are reported as the {@code cache.*} metrics of the
+ * {@code room-documents} cache.
+ */
+@Component
+@Slf4j
+public class DocumentRegistry {
+    private static final String CACHE = "room-documents";
+
+    private final Map<String, RoomDocument> documents = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public DocumentRegistry(MeterRegistry meterRegistry) {
+        this.hits = Counter.builder("cache.gets").tag("cache", CACHE).tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("cache.gets").tag("cache", CACHE).tag("result", "miss").register(meterRegistry);
+        this.evictions = Counter.builder("cache.evictions").tag("cache", CACHE).register(meterRegistry);
+        Gauge.builder("cache.size", documents, Map::size).tag("cache", CACHE).register(meterRegistry);
+    }
+
+    public RoomDocument get(String roomId, Function<String, RoomDocument> loader) {
+        RoomDocument document = documents.get(roomId);
+        if (document != null) {
+            hits.increment();
+            return document;
+        }
+        misses.increment();
+        return documents.computeIfAbsent(roomId, loader);
+    }
+
+    /**
+     * Drops the local document when another node has committed past it, so the next edit
+     * reloads the room from Redis.
+     */
+    public void observe(String roomId, int revision) {
+        documents.computeIfPresent(roomId, (id, document) -> {
+            if (document.getRevision() >= revision) {
+                return document;
+            }
+            log.info("Document of room {} is behind revision {}, reloading", roomId, revision);
+            evictions.increment();
+            return null;
+        });
+    }
+
+    public void evict(String roomId) {
+        if (documents.remove(roomId) != null) {
+            evictions.increment();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.raslan.room.sync;
+
+import com.raslan.room.model.TextOperation;
+
+import java.util.Iterator;
+
+/**
+ * Operational transformation over {@link TextOperation}s.
+ * <p>
+ * Both the server and the clients call {@link #transform} with the client's own operation
+ * as the first argument, so when two inserts land on the same position the client's text
+ * ends up first everywhere.
+ */
+public final class OperationTransformer {
+
+    private OperationTransformer() {
+    }
+
+    public record Transformed(TextOperation first, TextOperation second) {
+    }
+
+    /**
+     * Transforms two operations made against the same document so that
+     * {@code apply(apply(doc, a), result.second()) == apply(apply(doc, b), result.first())}.
+     */
+    public static Transformed transform(TextOperation a, TextOperation b) {
+        if (a.getBaseLength() != b.getBaseLength()) {
+            throw new IllegalArgumentException("Both operations must be based on the same document");
+        }
+        TextOperation aPrime = new TextOperation();
+        TextOperation bPrime = new TextOperation();
+        Cursor first = new Cursor(a);
+        Cursor second = new Cursor(b);
+
+        while (first.hasCurrent() || second.hasCurrent()) {
+            if (first.isInsert()) {
+                aPrime.insert(first.text());
+                bPrime.retain(first.text().length());
+                first.advance();
+                continue;
+            }
+            if (second.isInsert()) {
+                aPrime.retain(second.text().length());
+                bPrime.insert(second.text());
+                second.advance();
+                continue;
+            }
+            if (!first.hasCurrent() || !second.hasCurrent()) {
+                throw new IllegalArgumentException("Operations do not cover the same document");
+            }
+            int length = Math.min(first.length(), second.length());
+            if (first.isRetain() && second.isRetain()) {
+                aPrime.retain(length);
+                bPrime.retain(length);
+            } else if (first.isDelete() && second.isRetain()) {
+                aPrime.delete(length);
+            } else if (first.isRetain() && second.isDelete()) {
+                bPrime.delete(length);
+            }
+            // when both delete the same range there is nothing left to do on either side
+            first.consume(length);
+            second.consume(length);
+        }
+        return new Transformed(aPrime, bPrime);
+    }
+
+    /**
+     * Merges two consecutive operations into one with the same effect as applying
+     * {@code a} and then {@code b}.
+     */
+    public static TextOperation compose(TextOperation a, TextOperation b) {
+        if (a.getTargetLength() != b.getBaseLength()) {
+            throw new IllegalArgumentException("The second operation must start where the first one ends");
+        }
+        TextOperation composed = new TextOperation();
+        Cursor first = new Cursor(a);
+        Cursor second = new Cursor(b);
+
+        while (first.hasCurrent() || second.hasCurrent()) {
+            if (first.isDelete()) {
+                composed.delete(first.length());
+                first.advance();
+                continue;
+            }
+            if (second.isInsert()) {
+                composed.insert(second.text());
+                second.advance();
+                continue;
+            }
+            if (!first.hasCurrent() || !second.hasCurrent()) {
+                throw new IllegalArgumentException("Operations cannot be composed");
+            }
+            int length = Math.min(first.length(), second.length());
+            if (first.isRetain() && second.isRetain()) {
+                composed.retain(length);
+            } else if (first.isInsert() && second.isRetain()) {
+                composed.insert(first.text().substring(0, length));
+            } else if (first.isRetain() && second.isDelete()) {
+                composed.delete(length);
+            }
+            // an insert removed again by the second operation leaves no trace
+            first.consume(length);
+            second.consume(length);
+        }
+        return composed;
+    }
+
+    /**
+     * Walks the components of an operation, allowing the current one to be partially
+     * consumed.
+     */
+    private static final class Cursor {
+        private final Iterator<Object> components;
+        private Object current;
+        private int offset;
+
+        Cursor(TextOperation operation) {
+            this.components = operation.getComponents().iterator();
+            advance();
+        }
+
+        boolean hasCurrent() {
+            return current != null;
+        }
+
+        boolean isRetain() {
+            return TextOperation.isRetain(current);
+        }
+
+        boolean isInsert() {
+            return TextOperation.isInsert(current);
+        }
+
+        boolean isDelete() {
+            return TextOperation.isDelete(current);
+        }
+
+        String text() {
+            return ((String) current).substring(offset);
+        }
+
+        int length() {
+            if (isInsert()) {
+                return ((String) current).length() - offset;
+            }
+            return Math.abs((Integer) current) - offset;
+        }
+
+        void consume(int count) {
+            offset += count;
+            if (length() == 0) {
+                advance();
+            }
+        }
+
+        void advance() {
+            current = components.hasNext() ? components.next() : null;
+            offset = 0;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.raslan.room.sync;
+
+import com.raslan.Exeption.StaleRevisionException;
+import com.raslan.room.model.RoomOperation;
+import com.raslan.room.model.TextOperation;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The in-memory state of one room's document.
+ * <p>
+ * A writer {@link #prepare prepares} its operation by transforming it against everything
+ * committed since its base revision, has it sequenced by the room's operation log and
+ * then {@link #append appends} it. Both are lock-free, so concurrent typists never wait
+ * on each other; a writer whose revision was taken appends the operations that beat it
+ * and prepares again.
+ */
+public class RoomDocument {
+    private final AtomicReference<State> state;
+    private final int historySize;
+
+    public RoomDocument(String text, int revision, List<RoomOperation> history, int historySize) {
+        this.historySize = historySize;
+        State initial = new State(revision - history.size(), "", null, 0);
+        for (RoomOperation operation : history) {
+            initial = initial.next(operation, "", historySize);
+        }
+        this.state = new AtomicReference<>(new State(revision, text, initial.head, initial.depth));
+    }
+
+    public record Snapshot(int revision, String text) {
+    }
+
+    public Snapshot snapshot() {
+        State current = state.get();
+        return new Snapshot(current.revision, current.text);
+    }
+
+    public int getRevision() {
+        return state.get().revision;
+    }
+
+    /**
+     * An operation transformed up to the head of the document, ready to be committed as
+     * revision {@code revision + 1}.
+     */
+    public record Prepared(int revision, TextOperation operation) {
+    }
+
+    /**
+     * Transforms an operation made against {@code baseRevision} up to the current head
+     * without committing it, for callers that have the commit sequenced elsewhere and
+     * then {@link #append} the result.
+     *
+     * @throws StaleRevisionException when the base revision is no longer in the history
+     */
+    public Prepared prepare(int baseRevision, TextOperation operation) {
+        State current = state.get();
+        TextOperation pending = operation;
+        for (RoomOperation concurrent : current.since(baseRevision)) {
+            pending = OperationTransformer.transform(pending, concurrent.operation()).first();
+        }
+        if (pending.getBaseLength() != current.text.length()) {
+            throw new IllegalArgumentException(
+                    "Operation expects a document of length " + pending.getBaseLength() + " but got " + current.text.length());
+        }
+        return new Prepared(current.revision, pending);
+    }
+
+    /**
+     * Applies an operation that was already sequenced at {@code operation.revision()}.
+     * Appending a revision the document already has is a no-op, so the same operation
+     * may safely arrive through more than one path.
+     *
+     * @throws IllegalStateException when earlier revisions are missing
+     */
+    public void append(RoomOperation operation) {
+        while (true) {
+            State current = state.get();
+            if (current.revision >= operation.revision()) {
+                return;
+            }
+            if (current.revision != operation.revision() - 1) {
+                throw new IllegalStateException(
+                        "Cannot append revision " + operation.revision() + " to a document at revision " + current.revision);
+            }
+            String text = operation.operation().apply(current.text);
+            if (state.compareAndSet(current, current.next(operation, text, historySize))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the operations committed after {@code revision}, or empty when they have
+     * already dropped out of the history.
+     */
+    public Optional<List<RoomOperation>> operationsSince(int revision) {
+        try {
+            return Optional.of(state.get().since(revision));
+        } catch (StaleRevisionException ex) {
+            return Optional.empty();
+        }
+    }
+
+    private record Commit(RoomOperation operation, Commit previous) {
+    }
+
+    private record State(int revision, String text, Commit head, int depth) {
+
+        List<RoomOperation> since(int base) {
+            int count = revision - base;
+            if (count < 0 || count > depth) {
+                throw new StaleRevisionException(
+                        "Revision " + base + " is outside the history of a document at revision " + revision);
+            }
+            RoomOperation[] operations = new RoomOperation[count];
+            Commit commit = head;
+            for (int i = count - 1; i >= 0; i--) {
+                operations[i] = commit.operation;
+                commit = commit.previous;
+            }
+            return Arrays.asList(operations);
+        }
+
+        State next(RoomOperation operation, String text, int historySize) {
+            Commit next = new Commit(operation, head);
+            int nextDepth = depth + 1;
+            // the chain is rebuilt once it doubles so older commits become unreachable
+            if (nextDepth > 2 * historySize) {
+                next = truncate(next, historySize);
+                nextDepth = historySize;
+            }
+            return new State(operation.revision(), text, next, nextDepth);
+        }
+
+        private static Commit truncate(Commit head, int size) {
+            RoomOperation[] kept = new RoomOperation[size];
+            Commit commit = head;
+            for (int i = size - 1; i >= 0; i--) {
+                kept[i] = commit.operation;
+                commit = commit.previous;
+            }
+            Commit truncated = null;
+            for (RoomOperation operation : kept) {
+                truncated = new Commit(operation, truncated);
+            }
+            return truncated;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.raslan.submission.controller;
 
+import com.raslan.submission.dto.BatchSubmissionRequest;
 import com.raslan.submission.service.SubmissionService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -16,7 +17,17 @@ public class SubmissionController {
     private final SubmissionService submissionService;
 
     @PostMapping
-    public void handleSubmission(@RequestBody Map<String, String> request) {
-        submissionService.handleSubmission(request);
+    public Map<String, String> handleSubmission(@RequestBody Map<String, String> request) {
+        return Map.of("runId", submissionService.handleSubmission(request));
+    }
+
+    @PostMapping("/batch")
+    public Map<String, String> handleBatchSubmission(@RequestBody BatchSubmissionRequest request) {
+        return Map.of("runId", submissionService.handleBatchSubmission(request));
+    }
+
+    @PostMapping("/cancel")
+    public void cancel(@RequestBody Map<String, String> request) {
+        submissionService.cancel(request.get("roomId"), request.get("runId"));
     }
 }
@@ -0,0 +1,13 @@
+package com.raslan.submission.dto;
+
+import java.util.List;
+
+/**
+ * One program to run against every test case; {@code expected} may be left out of a
+ * case whose output is not checked.
+ */
+public record BatchSubmissionRequest(String roomId, String language, String code, List<TestCase> testCases) {
+
+    public record TestCase(String input, String expected) {
+    }
+}
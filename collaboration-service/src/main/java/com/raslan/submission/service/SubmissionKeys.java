@@ -0,0 +1,37 @@
+package com.raslan.submission.service;
+
+import java.util.List;
+
+/**
+ * Redis keys of a room's scheduling state, shared with the execution-service: the
+ * pending submission, the flag saying a ticket for the room is queued, and the number of
+ * the room's runs in flight. Large inputs and the test cases of batches are kept apart,
+ * under keys of their run.
+ */
+final class SubmissionKeys {
+    /**
+     * Channel that tells the execution-service to stop runs.
+     */
+    static final String CANCEL_CHANNEL = "execution:cancel";
+
+    private static final String PREFIX = "execution:room:";
+
+    private SubmissionKeys() {
+    }
+
+    static String pending(String roomId) {
+        return PREFIX + roomId + ":pending";
+    }
+
+    static String input(String runId) {
+        return "execution:input:" + runId;
+    }
+
+    static String cases(String runId) {
+        return "execution:cases:" + runId;
+    }
+
+    static List<String> all(String roomId) {
+        return List.of(pending(roomId), PREFIX + roomId + ":ticket", PREFIX + roomId + ":running");
+    }
+}
@@ -1,23 +1,157 @@
 package com.raslan.submission.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.raslan.Exeption.InvalidSubmissionException;
+import com.raslan.messaging.MessageCodec;
+import com.raslan.submission.dto.BatchSubmissionRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
+/**
+ * Schedules submissions fairly between rooms. A room's latest submission waits in Redis
+ * and the queue only carries a ticket naming the room; a room has at most one ticket
+ * queued, so busy rooms take turns with quiet ones instead of filling the queue. A new
+ * submission replaces one of the same room that has not started yet, and a room never
+ * has more than {@code max-in-flight-per-room} runs going: the execution-service queues
+ * the next ticket when one of them finishes.
+ * <p>
+ * Every submission gets a run id. A run is cancelled by dropping it from Redis while it
+ * is pending and by telling the execution-service to stop it once it has started; a new
+ * submission cancels the room's older runs that are still going.
+ * <p>
+ * Input larger than {@code inline-input-limit} is stored under its own key and the
+ * submission only names it, so it is written once and read once by the worker that runs
+ * it rather than copied every time the submission moves.
+ * <p>
+ * A batch submission runs one program against up to {@code batch.max-cases} test cases
+ * in a single run, compiled once; its cases are stored apart the same way.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class SubmissionService {
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> SUBMIT = RedisScript.of(new ClassPathResource("scripts/submit.lua"), List.class);
+    private static final RedisScript<Long> CANCEL = RedisScript.of(new ClassPathResource("scripts/cancel_submission.lua"), Long.class);
+
     private final RabbitTemplate rabbitTemplate;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final MessageCodec messageCodec;
     @Value("${rabbitmq.queue.name}")
     private String queueName;
+    @Value("${execution.max-in-flight-per-room}")
+    private int maxInFlightPerRoom;
+    @Value("${execution.pending-ttl}")
+    private Duration pendingTtl;
+    @Value("${execution.inline-input-limit}")
+    private DataSize inlineInputLimit;
+    @Value("${execution.batch.max-cases}")
+    private int maxBatchCases;
+
+    /**
+     * Schedules a submission and returns its run id.
+     */
+    public String handleSubmission(Map<String, String> request) {
+        String roomId = request.get("roomId");
+        String runId = UUID.randomUUID().toString();
+        Map<String, String> submission = new HashMap<>(request);
+        submission.put("runId", runId);
+        String input = submission.get("input");
+        if (input != null && input.getBytes(StandardCharsets.UTF_8).length > inlineInputLimit.toBytes()) {
+            String inputKey = SubmissionKeys.input(runId);
+            redisTemplate.opsForValue().set(inputKey, input, pendingTtl);
+            submission.remove("input");
+            submission.put("inputKey", inputKey);
+        }
+        schedule(roomId, runId, submission);
+        return runId;
+    }
+
+    /**
+     * Schedules a batch submission and returns its run id.
+     */
+    public String handleBatchSubmission(BatchSubmissionRequest request) {
+        List<BatchSubmissionRequest.TestCase> cases = request.testCases();
+        if (cases == null || cases.isEmpty() || cases.size() > maxBatchCases) {
+            throw new InvalidSubmissionException("A batch needs between 1 and " + maxBatchCases + " test cases");
+        }
+        String runId = UUID.randomUUID().toString();
+        String casesKey = SubmissionKeys.cases(runId);
+        redisTemplate.opsForValue().set(casesKey, writeJson(cases), pendingTtl);
+        Map<String, String> submission = new HashMap<>();
+        submission.put("roomId", request.roomId());
+        submission.put("language", request.language());
+        submission.put("code", request.code());
+        submission.put("runId", runId);
+        submission.put("casesKey", casesKey);
+        schedule(request.roomId(), runId, submission);
+        return runId;
+    }
+
+    private void schedule(String roomId, String runId, Map<String, String> submission) {
+        List<?> result = redisTemplate.execute(SUBMIT, SubmissionKeys.all(roomId),
+                writeJson(submission), String.valueOf(maxInFlightPerRoom), String.valueOf(pendingTtl.toSeconds()));
+        if (((Number) result.get(1)).intValue() == 1) {
+            log.info("Submission of room {} replaced its pending one", roomId);
+        }
+        if (((Number) result.get(2)).intValue() > 0) {
+            // the room's older runs would only hold up this one
+            publishCancel(roomId, null, runId);
+        }
+        if (((Number) result.get(0)).intValue() == 1) {
+            rabbitTemplate.convertAndSend(queueName, Map.of("roomId", roomId));
+            log.info("Ticket of room {} sent to RabbitMQ With queue name {}", roomId, queueName);
+        }
+    }
+
+    /**
+     * Cancels a run of the room, or whatever the room has pending and running when
+     * {@code runId} is null.
+     */
+    public void cancel(String roomId, String runId) {
+        Long dropped = redisTemplate.execute(CANCEL, List.of(SubmissionKeys.pending(roomId)), runId == null ? "" : runId);
+        if (dropped != null && dropped == 1) {
+            log.info("Dropped the pending submission of room {}", roomId);
+        }
+        publishCancel(roomId, runId, null);
+    }
+
+    private void publishCancel(String roomId, String runId, String except) {
+        Map<String, String> message = new HashMap<>();
+        message.put("roomId", roomId);
+        if (runId != null) {
+            message.put("runId", runId);
+        }
+        if (except != null) {
+            message.put("except", except);
+        }
+        byte[] body = messageCodec.encode(message);
+        redisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.publish(SubmissionKeys.CANCEL_CHANNEL.getBytes(StandardCharsets.UTF_8), body));
+    }
 
-    public void handleSubmission(Map<String, String> submission) {
-        rabbitTemplate.convertAndSend(queueName, submission);
-        log.info("Submission {} sent to RabbitMQ With queue name {}", submission, queueName);
+    private String writeJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
     }
 }
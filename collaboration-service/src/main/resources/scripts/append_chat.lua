@@ -0,0 +1,9 @@
+-- Appends a chat message to an existing room.
+-- KEYS: room hash, chat list
+-- ARGV: message
+-- Returns 0 when the room does not exist, otherwise the number of chat messages.
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return 0
+end
+local count = redis.call('RPUSH', KEYS[2], ARGV[1])
+return count
@@ -0,0 +1,13 @@
+-- Drops a room's pending submission before it starts.
+-- KEYS: pending submission
+-- ARGV: run id, or an empty string for whatever the room has pending
+-- Returns 1 when a pending submission was dropped.
+local pending = redis.call('GET', KEYS[1])
+if not pending then
+    return 0
+end
+if ARGV[1] ~= '' and cjson.decode(pending).runId ~= ARGV[1] then
+    return 0
+end
+redis.call('DEL', KEYS[1])
+return 1
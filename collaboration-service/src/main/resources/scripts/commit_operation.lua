@@ -0,0 +1,27 @@
+-- Sequences a code operation: it is appended as the next revision only if the room is
+-- still at the revision the operation was transformed against.
+-- KEYS: room hash, operation log
+-- ARGV: expected revision, operation, history size
+-- The log keeps the last history size operations, and every one newer than the stored
+-- code snapshot however many that is, since nothing else holds those revisions.
+-- Returns {-1} when the room does not exist, {1, revision} once committed, or
+-- {0, revision, operations} with the log entries the caller is missing.
+local current = redis.call('HGET', KEYS[1], 'revision')
+if not current then
+    return {-1}
+end
+current = tonumber(current)
+local expected = tonumber(ARGV[1])
+if current ~= expected then
+    local missing = current - expected
+    if missing <= 0 then
+        return {0, current, {}}
+    end
+    return {0, current, redis.call('LRANGE', KEYS[2], -missing, -1)}
+end
+redis.call('HSET', KEYS[1], 'revision', current + 1)
+redis.call('RPUSH', KEYS[2], ARGV[2])
+local stored = tonumber(redis.call('HGET', KEYS[1], 'codeRevision') or '0')
+local keep = math.max(tonumber(ARGV[3]), current + 1 - stored)
+redis.call('LTRIM', KEYS[2], -keep, -1)
+return {1, current + 1}
@@ -0,0 +1,7 @@
+-- Reads a whole room in one round-trip.
+-- KEYS: room hash, users set, chat list
+-- Returns {0} when the room does not exist, otherwise {1, hash fields, users, chat}.
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return {0}
+end
+return {1, redis.call('HGETALL', KEYS[1]), redis.call('SMEMBERS', KEYS[2]), redis.call('LRANGE', KEYS[3], 0, -1)}
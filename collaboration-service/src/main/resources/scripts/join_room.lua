@@ -0,0 +1,16 @@
+-- Adds a user to a room, creating the room with the given defaults if it does not exist.
+-- KEYS: room hash, users set, chat list
+-- ARGV: username, code, input, output, language
+-- Returns {0} when the username is taken, otherwise {1, created, hash fields, users, chat}.
+if redis.call('SISMEMBER', KEYS[2], ARGV[1]) == 1 then
+    return {0}
+end
+local created = 0
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    redis.call('HSET', KEYS[1],
+            'code', ARGV[2], 'codeRevision', 0, 'revision', 0,
+            'input', ARGV[3], 'output', ARGV[4], 'language', ARGV[5])
+    created = 1
+end
+redis.call('SADD', KEYS[2], ARGV[1])
+return {1, created, redis.call('HGETALL', KEYS[1]), redis.call('SMEMBERS', KEYS[2]), redis.call('LRANGE', KEYS[3], 0, -1)}
@@ -0,0 +1,12 @@
+-- Removes a user from a room and deletes every key of the room with its last user.
+-- KEYS: room hash, users set, chat list, operation log
+-- ARGV: username
+-- Returns {0} when the user is not in the room, otherwise {1, remaining users}.
+if redis.call('SREM', KEYS[2], ARGV[1]) == 0 then
+    return {0}
+end
+local users = redis.call('SMEMBERS', KEYS[2])
+if #users == 0 then
+    redis.call('DEL', KEYS[1], KEYS[2], KEYS[3], KEYS[4])
+end
+return {1, users}
@@ -0,0 +1,14 @@
+-- Restarts a room's document from a snapshot after its operation log lost revisions. The
+-- snapshot becomes the revision after the head and the log is emptied, so no client keeps
+-- text of a revision that now stands for something else.
+-- KEYS: room hash, operation log
+-- ARGV: head revision the caller saw, code
+-- Returns the new revision, or -1 when the room is gone or has moved past that head.
+local current = redis.call('HGET', KEYS[1], 'revision')
+if not current or tonumber(current) ~= tonumber(ARGV[1]) then
+    return -1
+end
+local revision = tonumber(current) + 1
+redis.call('HSET', KEYS[1], 'revision', revision, 'code', ARGV[2], 'codeRevision', revision)
+redis.call('DEL', KEYS[2])
+return revision
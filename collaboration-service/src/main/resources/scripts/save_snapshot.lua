@@ -0,0 +1,13 @@
+-- Stores a snapshot of the code unless a newer one is already stored.
+-- KEYS: room hash
+-- ARGV: code, revision
+-- Returns 1 when the snapshot was stored, 0 otherwise.
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return 0
+end
+local stored = tonumber(redis.call('HGET', KEYS[1], 'codeRevision') or '-1')
+if stored >= tonumber(ARGV[2]) then
+    return 0
+end
+redis.call('HSET', KEYS[1], 'code', ARGV[1], 'codeRevision', ARGV[2])
+return 1
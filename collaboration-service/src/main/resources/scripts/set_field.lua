@@ -0,0 +1,9 @@
+-- Sets one field of an existing room without resurrecting a room that was deleted.
+-- KEYS: room hash
+-- ARGV: field, value
+-- Returns 0 when the room does not exist, 1 otherwise.
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return 0
+end
+redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+return 1
@@ -0,0 +1,15 @@
+-- Makes a submission the room's pending one, replacing a pending one that has not started.
+-- KEYS: pending submission, ticket flag, running counter
+-- ARGV: submission, in-flight limit, ttl seconds
+-- Returns {queue, superseded, running}: queue is 1 when the caller has to queue a ticket
+-- for the room and 0 when a ticket is already queued or a finishing run will queue one;
+-- superseded is 1 when a pending submission was replaced; running is the number of the
+-- room's runs in flight.
+local superseded = redis.call('EXISTS', KEYS[1])
+local running = tonumber(redis.call('GET', KEYS[3]) or '0')
+redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[3])
+if redis.call('EXISTS', KEYS[2]) == 1 or running >= tonumber(ARGV[2]) then
+    return {0, superseded, running}
+end
+redis.call('SET', KEYS[2], '1', 'EX', ARGV[3])
+return {1, superseded, running}
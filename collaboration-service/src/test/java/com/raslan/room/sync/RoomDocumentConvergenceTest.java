@@ -0,0 +1,354 @@
+package com.raslan.room.sync;
+
+import com.raslan.Exeption.StaleRevisionException;
+import com.raslan.messaging.RoomBroadcaster;
+import com.raslan.room.dto.events.CodeUpdateEvent;
+import com.raslan.room.model.RoomOperation;
+import com.raslan.room.model.TextOperation;
+import com.raslan.room.service.DocumentService;
+import com.raslan.room.service.RoomService;
+import com.raslan.room.service.RoomWriteBehind;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RoomDocumentConvergenceTest {
+
+    private static final String INITIAL = "function helloWorld() {\n  console.log(\"Hello, world!\");\n}\n";
+    private static final String ROOM = "room";
+
+    @Test
+    void transformedOperationsConvergeOnRandomDocuments() {
+        Random random = new Random(7);
+        for (int i = 0; i < 5_000; i++) {
+            String document = randomText(random, random.nextInt(40));
+            TextOperation a = randomOperation(random, document);
+            TextOperation b = randomOperation(random, document);
+            OperationTransformer.Transformed transformed = OperationTransformer.transform(a, b);
+
+            assertEquals(
+                    transformed.second().apply(a.apply(document)),
+                    transformed.first().apply(b.apply(document)));
+        }
+    }
+
+    @Test
+    void composedOperationMatchesSequentialApplication() {
+        Random random = new Random(11);
+        for (int i = 0; i < 5_000; i++) {
+            String document = randomText(random, random.nextInt(40));
+            TextOperation a = randomOperation(random, document);
+            TextOperation b = randomOperation(random, a.apply(document));
+
+            assertEquals(b.apply(a.apply(document)), OperationTransformer.compose(a, b).apply(document));
+        }
+    }
+
+    @Test
+    void optimisticClientsConvergeUnderRandomInterleavings() {
+        for (long seed = 1; seed <= 20; seed++) {
+            Random random = new Random(seed);
+            OperationLog log = new OperationLog();
+            // two nodes, so commits routed to one leave the other behind to catch up
+            List<DocumentService> nodes = List.of(node(log, 10_000), node(log, 10_000));
+            List<SimulatedClient> clients = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                clients.add(new SimulatedClient("user-" + i, INITIAL));
+            }
+
+            int edits = 0;
+            while (edits < 2_000) {
+                SimulatedClient client = clients.get(random.nextInt(clients.size()));
+                int action = random.nextInt(3);
+                if (action == 0) {
+                    client.edit(randomEdit(random, client.document));
+                    edits++;
+                } else if (action == 1 && !client.outbox.isEmpty()) {
+                    deliverToServer(nodes.get(random.nextInt(nodes.size())), client, clients);
+                } else if (action == 2 && !client.inbox.isEmpty()) {
+                    client.receive(client.inbox.poll());
+                }
+            }
+            drain(nodes.get(0), clients);
+
+            String expected = log.replay(log.revision());
+            for (SimulatedClient client : clients) {
+                assertEquals(expected, client.document, "client " + client.username + " diverged with seed " + seed);
+                assertEquals(log.revision(), client.revision);
+            }
+        }
+    }
+
+    @Test
+    void concurrentWritersCommitAContiguousHistory() throws Exception {
+        int writers = 32;
+        int editsPerWriter = 200;
+        OperationLog log = new OperationLog();
+        List<DocumentService> nodes = new ArrayList<>();
+        for (int n = 0; n < 4; n++) {
+            nodes.add(node(log, writers * editsPerWriter));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            Random random = new Random(w);
+            String username = "writer-" + w;
+            DocumentService node = nodes.get(w % nodes.size());
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < editsPerWriter; i++) {
+                    RoomDocument.Snapshot base = node.snapshot(ROOM);
+                    node.applyOperation(ROOM, username, base.revision(), randomEdit(random, base.text()));
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(writers * editsPerWriter, log.revision());
+        int revision = 0;
+        for (RoomOperation operation : log.operations()) {
+            assertEquals(++revision, operation.revision());
+        }
+        // every node holds exactly the log's text at the revision it caught up to
+        for (DocumentService node : nodes) {
+            RoomDocument.Snapshot snapshot = node.snapshot(ROOM);
+            assertEquals(log.replay(snapshot.revision()), snapshot.text());
+        }
+    }
+
+    @Test
+    void roomThatLostRevisionsRestartsAtANewRevision() {
+        // revisions 3..5 were applied by clients but are gone from the log
+        RoomService roomService = mock(RoomService.class);
+        when(roomService.getRevision(ROOM)).thenReturn(5);
+        when(roomService.getCodeSnapshot(ROOM)).thenReturn(new RoomDocument.Snapshot(2, INITIAL));
+        when(roomService.getOperations(ROOM)).thenReturn(List.of());
+        when(roomService.resetCode(ROOM, INITIAL, 5)).thenReturn(6);
+        RoomBroadcaster broadcaster = mock(RoomBroadcaster.class);
+        DocumentService node = new DocumentService(roomService, new DocumentRegistry(new SimpleMeterRegistry()),
+                new RoomWriteBehind(roomService, false, 1, 100), broadcaster);
+        ReflectionTestUtils.setField(node, "historySize", 100);
+
+        assertEquals(new RoomDocument.Snapshot(6, INITIAL), node.snapshot(ROOM));
+        verify(broadcaster).publish(eq(ROOM), argThat(event ->
+                event instanceof CodeUpdateEvent update && update.revision() == 6 && update.code().equals(INITIAL)));
+        // an edit made on top of a lost revision cannot be placed and gets the snapshot
+        assertThrows(StaleRevisionException.class,
+                () -> node.applyOperation(ROOM, "user", 5, new TextOperation().retain(INITIAL.length())));
+    }
+
+    /**
+     * A node's document service over the shared log, with the room's Redis calls stubbed
+     * the way commit_operation.lua and the snapshot reads answer them.
+     */
+    private static DocumentService node(OperationLog log, int historySize) {
+        RoomService roomService = mock(RoomService.class);
+        when(roomService.commitOperation(anyString(), anyInt(), any(), anyInt()))
+                .thenAnswer(call -> log.commit(call.getArgument(1), call.getArgument(2)));
+        when(roomService.getRevision(anyString())).thenAnswer(call -> log.revision());
+        when(roomService.getCodeSnapshot(anyString())).thenReturn(new RoomDocument.Snapshot(0, INITIAL));
+        when(roomService.getOperations(anyString())).thenAnswer(call -> log.operations());
+        DocumentService node = new DocumentService(roomService, new DocumentRegistry(new SimpleMeterRegistry()),
+                new RoomWriteBehind(roomService, false, 1, historySize), mock(RoomBroadcaster.class));
+        ReflectionTestUtils.setField(node, "historySize", historySize);
+        return node;
+    }
+
+    private static void deliverToServer(DocumentService node, SimulatedClient sender, List<SimulatedClient> clients) {
+        PendingOperation pending = sender.outbox.poll();
+        RoomOperation committed = node.applyOperation(ROOM, sender.username, pending.revision(), pending.operation());
+        for (SimulatedClient client : clients) {
+            client.inbox.add(committed);
+        }
+    }
+
+    private static void drain(DocumentService server, List<SimulatedClient> clients) {
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (SimulatedClient client : clients) {
+                while (!client.outbox.isEmpty()) {
+                    deliverToServer(server, client, clients);
+                    progress = true;
+                }
+                while (!client.inbox.isEmpty()) {
+                    client.receive(client.inbox.poll());
+                    progress = true;
+                }
+            }
+        }
+    }
+
+    private static TextOperation randomOperation(Random random, String document) {
+        TextOperation operation = new TextOperation();
+        int position = 0;
+        while (position < document.length()) {
+            int remaining = document.length() - position;
+            int length = 1 + random.nextInt(Math.min(remaining, 10));
+            switch (random.nextInt(4)) {
+                case 0 -> operation.insert(randomText(random, 1 + random.nextInt(5)));
+                case 1 -> {
+                    operation.delete(length);
+                    position += length;
+                }
+                default -> {
+                    operation.retain(length);
+                    position += length;
+                }
+            }
+        }
+        if (random.nextBoolean()) {
+            operation.insert(randomText(random, 1 + random.nextInt(5)));
+        }
+        return operation;
+    }
+
+    /**
+     * A keystroke-sized edit: typing, deleting or replacing a few characters at one
+     * position, biased towards deletes once the document grows.
+     */
+    private static TextOperation randomEdit(Random random, String document) {
+        int position = random.nextInt(document.length() + 1);
+        int deletable = document.length() - position;
+        boolean shrink = document.length() > 300 || random.nextInt(10) < 3;
+        int deleted = shrink && deletable > 0 ? 1 + random.nextInt(Math.min(deletable, 5)) : 0;
+        String inserted = deleted > 0 && random.nextBoolean() ? "" : randomText(random, 1 + random.nextInt(4));
+        return new TextOperation()
+                .retain(position)
+                .insert(inserted)
+                .delete(deleted)
+                .retain(deletable - deleted);
+    }
+
+    private static String randomText(Random random, int length) {
+        String alphabet = "abcdefgh \n{}();";
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+    private record PendingOperation(int revision, TextOperation operation) {
+    }
+
+    /**
+     * The room's operation log: an operation becomes the next revision only if the room
+     * is still at the revision it was prepared against, otherwise the caller gets what it
+     * is missing.
+     */
+    private static final class OperationLog {
+        private final List<RoomOperation> operations = new ArrayList<>();
+
+        synchronized RoomService.CommitResult commit(int expectedRevision, RoomOperation operation) {
+            int current = operations.size();
+            if (current != expectedRevision) {
+                List<RoomOperation> missed = current > expectedRevision
+                        ? List.copyOf(operations.subList(expectedRevision, current))
+                        : List.of();
+                return new RoomService.CommitResult(false, current, missed);
+            }
+            operations.add(operation);
+            return new RoomService.CommitResult(true, current + 1, List.of());
+        }
+
+        synchronized int revision() {
+            return operations.size();
+        }
+
+        synchronized List<RoomOperation> operations() {
+            return List.copyOf(operations);
+        }
+
+        synchronized String replay(int revision) {
+            String text = INITIAL;
+            for (RoomOperation operation : operations.subList(0, revision)) {
+                text = operation.operation().apply(text);
+            }
+            return text;
+        }
+    }
+
+    /**
+     * A client that applies its own edits immediately, keeps at most one operation in
+     * flight and buffers the rest until the server acknowledges it.
+     */
+    private static final class SimulatedClient {
+        private final String username;
+        private final Deque<PendingOperation> outbox = new ArrayDeque<>();
+        private final Deque<RoomOperation> inbox = new ArrayDeque<>();
+        private String document;
+        private int revision;
+        private TextOperation outstanding;
+        private TextOperation buffer;
+
+        SimulatedClient(String username, String document) {
+            this.username = username;
+            this.document = document;
+        }
+
+        void edit(TextOperation operation) {
+            document = operation.apply(document);
+            if (outstanding == null) {
+                outstanding = operation;
+                outbox.add(new PendingOperation(revision, operation));
+            } else if (buffer == null) {
+                buffer = operation;
+            } else {
+                buffer = OperationTransformer.compose(buffer, operation);
+            }
+        }
+
+        void receive(RoomOperation committed) {
+            revision = committed.revision();
+            if (committed.username().equals(username)) {
+                outstanding = buffer;
+                buffer = null;
+                if (outstanding != null) {
+                    outbox.add(new PendingOperation(revision, outstanding));
+                }
+                return;
+            }
+            TextOperation incoming = committed.operation();
+            if (outstanding != null) {
+                OperationTransformer.Transformed transformed = OperationTransformer.transform(outstanding, incoming);
+                outstanding = transformed.first();
+                incoming = transformed.second();
+            }
+            if (buffer != null) {
+                OperationTransformer.Transformed transformed = OperationTransformer.transform(buffer, incoming);
+                buffer = transformed.first();
+                incoming = transformed.second();
+            }
+            document = incoming.apply(document);
+        }
+    }
+}
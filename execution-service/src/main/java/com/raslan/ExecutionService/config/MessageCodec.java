@@ -0,0 +1,96 @@
+package com.raslan.ExecutionService.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Encodes messages exchanged with the collaboration service in the configured
+ * {@link Format}. Every format carries a header that identifies it, so readers accept all
+ * of them and a deployment can switch formats once both services read the new one.
+ * Events for the rooms' sessions are not encoded with it: they are published as JSON.
+ * <p>
+ * A copy of the collaboration service's class of the same name, which also transcodes to
+ * JSON; the services build separately, so a change to the formats or how they are
+ * detected goes into both.
+ */
+public class MessageCodec {
+
+    public enum Format {
+        JSON("application/json"),
+        SMILE("application/x-jackson-smile"),
+        CBOR("application/cbor");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    private final Format format;
+    private final Map<Format, ObjectMapper> mappers = new EnumMap<>(Format.class);
+
+    public MessageCodec(ObjectMapper objectMapper, Format format) {
+        this.format = format;
+        mappers.put(Format.JSON, objectMapper);
+        // Smile writes its ":)\n" header by default; CBOR needs the self-describe tag enabled
+        mappers.put(Format.SMILE, objectMapper.copyWith(new SmileFactory()));
+        mappers.put(Format.CBOR, objectMapper.copyWith(CBORFactory.builder()
+                .enable(CBORGenerator.Feature.WRITE_TYPE_HEADER)
+                .build()));
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public ObjectMapper mapper(Format format) {
+        return mappers.get(format);
+    }
+
+    public byte[] encode(Object value) {
+        try {
+            return mapper(format).writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public <T> T decode(byte[] body, Class<T> type) {
+        try {
+            return mapper(detect(body)).readValue(body, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Format detect(byte[] body) {
+        if (body.length >= 3 && body[0] == ':' && body[1] == ')' && body[2] == '\n') {
+            return Format.SMILE;
+        }
+        if (body.length >= 3 && (body[0] & 0xFF) == 0xD9 && (body[1] & 0xFF) == 0xD9 && (body[2] & 0xFF) == 0xF7) {
+            return Format.CBOR;
+        }
+        for (byte b : body) {
+            if (b == '{' || b == '[') {
+                return Format.JSON;
+            }
+            if (!Character.isWhitespace(b)) {
+                break;
+            }
+        }
+        throw new IllegalArgumentException("Unrecognised message format");
+    }
+}
@@ -4,11 +4,20 @@ import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
 import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.support.converter.ContentTypeDelegatingMessageConverter;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.util.MimeTypeUtils;
+
+import java.time.Duration;
 
 @Configuration
 public class RabbitMQConfiguration {
@@ -21,6 +30,18 @@ public class RabbitMQConfiguration {
     @Value("${rabbitmq.routing.key}")
     private String routingKey;
 
+    @Value("${rabbitmq.retry-queue.name}")
+    private String retryQueueName;
+
+    @Value("${execution.requeue-delay}")
+    private Duration requeueDelay;
+
+    @Value("${execution.workers}")
+    private int workers;
+
+    @Value("${execution.prefetch}")
+    private int prefetch;
+
     @Bean
     public Queue executionQueue() {
         return new Queue(queueName, true); // must match publisher's config
@@ -36,8 +57,56 @@ public class RabbitMQConfiguration {
         return BindingBuilder.bind(executionQueue).to(directExchange).with(routingKey);
     }
 
+    /**
+     * Holds tickets that found no free sandbox for {@code requeue-delay}, then dead-letters
+     * them back to the execution queue. Nothing consumes it.
+     */
     @Bean
-    public MessageConverter jsonMessageConverter() {
-        return new Jackson2JsonMessageConverter();
+    public Queue retryQueue() {
+        return QueueBuilder.durable(retryQueueName)
+                .ttl((int) requeueDelay.toMillis())
+                .deadLetterExchange(exchangeName)
+                .deadLetterRoutingKey(routingKey)
+                .build();
+    }
+
+    /**
+     * Runs a fixed number of execution workers, one per core unless configured. Each
+     * worker holds at most {@code prefetch} unacknowledged submissions, so a backlog stays
+     * in RabbitMQ instead of piling up in this service.
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        int count = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setConcurrentConsumers(count);
+        factory.setMaxConcurrentConsumers(count);
+        factory.setPrefetchCount(prefetch);
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("execution-worker-");
+        executor.setConcurrencyLimit(count);
+        factory.setTaskExecutor(executor);
+        return factory;
+    }
+
+    /**
+     * Writes submissions in the configured format and reads any supported one, picked by
+     * the message's content type.
+     */
+    @Bean
+    public MessageConverter messageConverter(MessageCodec messageCodec) {
+        ContentTypeDelegatingMessageConverter converter = new ContentTypeDelegatingMessageConverter(
+                converter(messageCodec, messageCodec.getFormat()));
+        for (MessageCodec.Format format : MessageCodec.Format.values()) {
+            converter.addDelegate(format.getContentType(), converter(messageCodec, format));
+        }
+        return converter;
+    }
+
+    private static MessageConverter converter(MessageCodec messageCodec, MessageCodec.Format format) {
+        Jackson2JsonMessageConverter converter = new Jackson2JsonMessageConverter(messageCodec.mapper(format));
+        converter.setSupportedContentType(MimeTypeUtils.parseMimeType(format.getContentType()));
+        return converter;
     }
 }
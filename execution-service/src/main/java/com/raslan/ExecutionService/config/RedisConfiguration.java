@@ -1,9 +1,12 @@
 package com.raslan.ExecutionService.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
@@ -36,4 +39,29 @@ public class RedisConfiguration {
     public GenericJackson2JsonRedisSerializer jsonRedisSerializer() {
         return new GenericJackson2JsonRedisSerializer();
     }
+
+    /**
+     * Started by {@link com.raslan.ExecutionService.service.RunCancellationSubscriber} once
+     * the service is up: the container fails its first subscription outright when Redis is
+     * unreachable, and that must not keep the service from starting.
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer() {
+            @Override
+            public boolean isAutoStartup() {
+                return false;
+            }
+        };
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+
+    /**
+     * Format of the messages this service publishes; any supported format is read.
+     */
+    @Bean
+    public MessageCodec messageCodec(ObjectMapper objectMapper, @Value("${messaging.codec}") String codec) {
+        return new MessageCodec(objectMapper, MessageCodec.Format.valueOf(codec.toUpperCase()));
+    }
 }
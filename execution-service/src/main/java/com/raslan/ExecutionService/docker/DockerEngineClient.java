@@ -0,0 +1,214 @@
+package com.raslan.ExecutionService.docker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Client for the Docker Engine API over the daemon's Unix socket. Request/response calls
+ * reuse pooled keep-alive connections; an exec stream gets a connection of its own,
+ * which Docker hijacks for the process's stdin and output.
+ */
+@Component
+@Slf4j
+public class DockerEngineClient {
+    private static final String API = "/v1.41";
+
+    private final Path socket;
+    private final int maxIdleConnections;
+    private final ObjectMapper objectMapper;
+    private final Deque<EngineConnection> idle = new ConcurrentLinkedDeque<>();
+
+    public DockerEngineClient(@Value("${docker.socket}") String socket,
+                              @Value("${docker.max-idle-connections}") int maxIdleConnections,
+                              ObjectMapper objectMapper) {
+        this.socket = Path.of(socket);
+        this.maxIdleConnections = maxIdleConnections;
+        this.objectMapper = objectMapper;
+    }
+
+    public record ExecState(boolean running, Integer exitCode) {
+    }
+
+    /**
+     * Creates a container, pulling its image first if the daemon does not have it.
+     */
+    public String createContainer(String name, Map<String, Object> config) {
+        String path = API + "/containers/create?name=" + encode(name);
+        EngineConnection.Response response = call("POST", path, json(config));
+        if (response.status() == 404) {
+            pullImage((String) config.get("Image"));
+            response = call("POST", path, json(config));
+        }
+        return read(check(response)).get("Id").asText();
+    }
+
+    public void startContainer(String id) {
+        check(call("POST", API + "/containers/" + id + "/start", null));
+    }
+
+    public void removeContainer(String id) {
+        EngineConnection.Response response = call("DELETE", API + "/containers/" + id + "?force=true", null);
+        if (response.status() != 404) {
+            check(response);
+        }
+    }
+
+    public void pullImage(String image) {
+        int colon = image.lastIndexOf(':');
+        String query = colon < 0
+                ? "fromImage=" + encode(image) + "&tag=latest"
+                : "fromImage=" + encode(image.substring(0, colon)) + "&tag=" + encode(image.substring(colon + 1));
+        log.info("Pulling image {}", image);
+        // the response streams pull progress and only returns once the pull is done; a
+        // failed pull still answers 200 and reports the error in the stream
+        EngineConnection.Response response = check(call("POST", API + "/images/create?" + query, null));
+        try (MappingIterator<JsonNode> progress = objectMapper.readerFor(JsonNode.class).readValues(response.body())) {
+            while (progress.hasNextValue()) {
+                JsonNode update = progress.nextValue();
+                if (update.hasNonNull("error")) {
+                    throw new DockerEngineException(response.status(), "Pulling " + image + " failed: " + update.get("error").asText());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String createExec(String container, List<String> command, boolean attachStdin) {
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("Cmd", command);
+        config.put("AttachStdin", attachStdin);
+        config.put("AttachStdout", true);
+        config.put("AttachStderr", true);
+        config.put("Tty", false);
+        return read(check(call("POST", API + "/containers/" + container + "/exec", json(config)))).get("Id").asText();
+    }
+
+    /**
+     * Starts an exec created by {@link #createExec} and attaches to its streams.
+     */
+    public ExecStream startExec(String execId) {
+        EngineConnection connection = null;
+        try {
+            connection = EngineConnection.open(socket);
+            EngineConnection.Response response = connection.upgrade("POST", API + "/exec/" + execId + "/start",
+                    json(Map.of("Detach", false, "Tty", false)));
+            check(response);
+            return new ExecStream(connection);
+        } catch (IOException | RuntimeException ex) {
+            closeQuietly(connection);
+            throw ex instanceof IOException io ? new UncheckedIOException(io) : (RuntimeException) ex;
+        }
+    }
+
+    public ExecState inspectExec(String execId) {
+        JsonNode exec = read(check(call("GET", API + "/exec/" + execId + "/json", null)));
+        JsonNode exitCode = exec.get("ExitCode");
+        return new ExecState(exec.get("Running").asBoolean(), exitCode == null || exitCode.isNull() ? null : exitCode.asInt());
+    }
+
+    private EngineConnection.Response call(String method, String path, byte[] body) {
+        EngineConnection connection = idle.pollFirst();
+        boolean pooled = connection != null;
+        boolean exchanged = false;
+        try {
+            if (connection == null) {
+                connection = EngineConnection.open(socket);
+            }
+            EngineConnection.Response response;
+            try {
+                response = connection.exchange(method, path, body);
+            } catch (IOException ex) {
+                if (!pooled) {
+                    throw ex;
+                }
+                // the daemon may have closed a connection while it sat in the pool
+                closeQuietly(connection);
+                connection = null;
+                connection = EngineConnection.open(socket);
+                response = connection.exchange(method, path, body);
+            }
+            exchanged = true;
+            return response;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Docker Engine request " + method + " " + path + " failed", ex);
+        } finally {
+            // a connection that failed mid-exchange may hold half a response
+            if (exchanged) {
+                release(connection);
+            } else {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    private void release(EngineConnection connection) {
+        if (connection.isReusable() && idle.size() < maxIdleConnections) {
+            idle.offerFirst(connection);
+        } else {
+            closeQuietly(connection);
+        }
+    }
+
+    private EngineConnection.Response check(EngineConnection.Response response) {
+        if (response.isSuccess() || response.status() == 101) {
+            return response;
+        }
+        String message = new String(response.body(), StandardCharsets.UTF_8);
+        try {
+            JsonNode error = objectMapper.readTree(response.body());
+            if (error != null && error.hasNonNull("message")) {
+                message = error.get("message").asText();
+            }
+        } catch (IOException ignored) {
+            // not JSON; keep the raw body
+        }
+        throw new DockerEngineException(response.status(), message);
+    }
+
+    private JsonNode read(EngineConnection.Response response) {
+        try {
+            return objectMapper.readTree(response.body());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] json(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static void closeQuietly(EngineConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+            // nothing left to release
+        }
+    }
+}
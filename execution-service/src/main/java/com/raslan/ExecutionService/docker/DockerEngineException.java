@@ -0,0 +1,17 @@
+package com.raslan.ExecutionService.docker;
+
+/**
+ * An error response from the Docker Engine API.
+ */
+public class DockerEngineException extends RuntimeException {
+    private final int status;
+
+    public DockerEngineException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
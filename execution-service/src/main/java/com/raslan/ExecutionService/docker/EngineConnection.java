@@ -0,0 +1,231 @@
+package com.raslan.ExecutionService.docker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One HTTP/1.1 connection to the Docker daemon's Unix socket. It speaks just enough HTTP
+ * for the Engine API: keep-alive requests with fixed or chunked bodies, and hijacked
+ * connections for exec streams.
+ */
+final class EngineConnection implements Closeable {
+    private final SocketChannel channel;
+    private final InputStream in;
+    private final OutputStream out;
+    private boolean reusable = true;
+
+    record Response(int status, Map<String, String> headers, byte[] body) {
+
+        boolean isSuccess() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    private EngineConnection(SocketChannel channel) {
+        this.channel = channel;
+        // the channel is read and written directly: the streams from Channels lock the
+        // channel for the duration of a read, which would block stdin behind stdout
+        this.in = new BufferedInputStream(new ChannelInput(channel));
+        this.out = new ChannelOutput(channel);
+    }
+
+    static EngineConnection open(Path socket) throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        return new EngineConnection(channel);
+    }
+
+    Response exchange(String method, String path, byte[] body) throws IOException {
+        writeRequest(method, path, body, Map.of());
+        Response head = readHead();
+        return new Response(head.status(), head.headers(), readBody(head));
+    }
+
+    /**
+     * Sends a request that upgrades the connection to a raw stream, after which only
+     * {@link #input()} and {@link #output()} may be used.
+     */
+    Response upgrade(String method, String path, byte[] body) throws IOException {
+        writeRequest(method, path, body, Map.of("Connection", "Upgrade", "Upgrade", "tcp"));
+        reusable = false;
+        Response head = readHead();
+        if (!head.isSuccess() && head.status() != 101) {
+            return new Response(head.status(), head.headers(), readBody(head));
+        }
+        return head;
+    }
+
+    InputStream input() {
+        return in;
+    }
+
+    OutputStream output() {
+        return out;
+    }
+
+    void shutdownOutput() throws IOException {
+        channel.shutdownOutput();
+    }
+
+    boolean isReusable() {
+        return reusable && channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void writeRequest(String method, String path, byte[] body, Map<String, String> extraHeaders) throws IOException {
+        StringBuilder request = new StringBuilder()
+                .append(method).append(' ').append(path).append(" HTTP/1.1\r\n")
+                .append("Host: docker\r\n");
+        extraHeaders.forEach((name, value) -> request.append(name).append(": ").append(value).append("\r\n"));
+        if (body != null) {
+            request.append("Content-Type: application/json\r\n");
+        }
+        request.append("Content-Length: ").append(body == null ? 0 : body.length).append("\r\n\r\n");
+        out.write(request.toString().getBytes(StandardCharsets.US_ASCII));
+        if (body != null) {
+            out.write(body);
+        }
+    }
+
+    private Response readHead() throws IOException {
+        String statusLine = readLine();
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        Map<String, String> headers = new HashMap<>();
+        for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+        }
+        if ("close".equalsIgnoreCase(headers.get("connection"))) {
+            reusable = false;
+        }
+        return new Response(Integer.parseInt(parts[1]), headers, new byte[0]);
+    }
+
+    private byte[] readBody(Response head) throws IOException {
+        if ("chunked".equalsIgnoreCase(head.headers().get("transfer-encoding"))) {
+            return readChunked();
+        }
+        String length = head.headers().get("content-length");
+        if (length != null) {
+            return readExactly(Integer.parseInt(length));
+        }
+        if (head.status() == 204 || head.status() == 304) {
+            return new byte[0];
+        }
+        reusable = false;
+        return in.readAllBytes();
+    }
+
+    private byte[] readChunked() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            String sizeLine = readLine();
+            int semicolon = sizeLine.indexOf(';');
+            int size = Integer.parseInt((semicolon < 0 ? sizeLine : sizeLine.substring(0, semicolon)).trim(), 16);
+            if (size == 0) {
+                // trailers end with an empty line
+                while (!readLine().isEmpty()) {
+                }
+                return body.toByteArray();
+            }
+            body.write(readExactly(size));
+            readLine();
+        }
+    }
+
+    private byte[] readExactly(int length) throws IOException {
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException("Connection closed mid-response");
+        }
+        return bytes;
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed by the Docker daemon");
+            }
+            if (b == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) b);
+        }
+    }
+
+    private static final class ChannelInput extends InputStream {
+        private final SocketChannel channel;
+
+        ChannelInput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            return channel.read(ByteBuffer.wrap(bytes, offset, length));
+        }
+    }
+
+    private static final class ChannelOutput extends OutputStream {
+        private final SocketChannel channel;
+
+        ChannelOutput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.raslan.ExecutionService.docker;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The attached streams of a running exec. Output arrives in Docker's multiplexed format:
+ * every frame is an 8 byte header holding the stream type and payload length, followed
+ * by the payload.
+ */
+public class ExecStream implements Closeable {
+    private final EngineConnection connection;
+    private final DataInputStream in;
+
+    public enum Source {
+        STDIN, STDOUT, STDERR
+    }
+
+    public record Frame(Source source, byte[] data) {
+    }
+
+    ExecStream(EngineConnection connection) {
+        this.connection = connection;
+        this.in = new DataInputStream(connection.input());
+    }
+
+    /**
+     * The process's stdin; {@link #closeStdin()} signals end of input.
+     */
+    public OutputStream stdin() {
+        return connection.output();
+    }
+
+    public void closeStdin() throws IOException {
+        connection.shutdownOutput();
+    }
+
+    /**
+     * Blocks for the next frame of output, or returns null once the process has closed
+     * its output.
+     */
+    public Frame next() throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return null;
+        }
+        try {
+            in.skipNBytes(3);
+            int length = in.readInt();
+            byte[] data = in.readNBytes(length);
+            if (data.length < length) {
+                throw new EOFException("Exec stream closed mid-frame");
+            }
+            return new Frame(source(type), data);
+        } catch (EOFException ex) {
+            throw new EOFException("Exec stream closed mid-frame");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        connection.close();
+    }
+
+    private static Source source(int type) throws IOException {
+        return switch (type) {
+            case 0 -> Source.STDIN;
+            case 1 -> Source.STDOUT;
+            case 2 -> Source.STDERR;
+            default -> throw new IOException("Unknown exec stream type " + type);
+        };
+    }
+}
@@ -0,0 +1,59 @@
+package com.raslan.ExecutionService.service;
+
+import java.util.List;
+
+/**
+ * Outcome of a batch submission: the verdict over all of its cases, how many passed, and
+ * each case's result. {@code output} holds what compiling printed, or why the batch did
+ * not run; {@code cases} is empty when it never got to them.
+ */
+public record BatchResult(Verdict verdict, int passed, String output, List<CaseResult> cases, ResourceUsage usage) {
+
+    /**
+     * In order of precedence: a batch is cancelled or fails to compile as a whole, and
+     * otherwise gets the verdict of its worst case.
+     */
+    public enum Verdict {
+        PASSED, WRONG_ANSWER, RUNTIME_ERROR, LIMIT_EXCEEDED, COMPILE_ERROR, CANCELLED, FAILED
+    }
+
+    public static BatchResult failed(String message) {
+        return notRun(ExecutionResult.failed(message));
+    }
+
+    /**
+     * Returns the result of a batch whose compile step ended it.
+     */
+    static BatchResult notRun(ExecutionResult compiled) {
+        Verdict verdict = switch (compiled.status()) {
+            case CANCELLED -> Verdict.CANCELLED;
+            case FAILED -> Verdict.FAILED;
+            default -> Verdict.COMPILE_ERROR;
+        };
+        return new BatchResult(verdict, 0, compiled.output(), List.of(), compiled.usage());
+    }
+
+    static BatchResult of(String output, List<CaseResult> cases, ResourceUsage usage) {
+        Verdict verdict = Verdict.PASSED;
+        int passed = 0;
+        for (CaseResult result : cases) {
+            Verdict caseVerdict = verdict(result);
+            if (caseVerdict == Verdict.PASSED) {
+                passed++;
+            } else if (caseVerdict.compareTo(verdict) > 0) {
+                verdict = caseVerdict;
+            }
+        }
+        return new BatchResult(verdict, passed, output, cases, usage);
+    }
+
+    private static Verdict verdict(CaseResult result) {
+        return switch (result.status()) {
+            case COMPLETED -> result.exitCode() != 0 ? Verdict.RUNTIME_ERROR
+                    : Boolean.FALSE.equals(result.passed()) ? Verdict.WRONG_ANSWER : Verdict.PASSED;
+            case CANCELLED -> Verdict.CANCELLED;
+            case FAILED -> Verdict.FAILED;
+            default -> Verdict.LIMIT_EXCEEDED;
+        };
+    }
+}
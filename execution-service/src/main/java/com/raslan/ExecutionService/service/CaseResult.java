@@ -0,0 +1,17 @@
+package com.raslan.ExecutionService.service;
+
+/**
+ * Outcome of one test case of a batch. {@code output} is the start of what the case
+ * printed, up to {@code execution.batch.case-output}; {@code passed} is null when the case
+ * has no expected output; {@code timeMillis} is the case's wall time.
+ */
+public record CaseResult(int index, ExecutionResult.Status status, int exitCode, String output,
+                         Boolean passed, long timeMillis) {
+
+    /**
+     * Returns the result without its output, which was published with the case already.
+     */
+    CaseResult summary() {
+        return new CaseResult(index, status, exitCode, null, passed, timeMillis);
+    }
+}
@@ -0,0 +1,157 @@
+package com.raslan.ExecutionService.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the build output of compiled submissions so running the same source again, e.g.
+ * with different input, skips the compiler. Entries are keyed by language, compiler image
+ * and a hash of the source, and the least recently used ones are deleted once the cache
+ * grows past {@code max-size} on disk.
+ */
+@Component
+@Slf4j
+public class CompileCache {
+    private final Path directory;
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter saved;
+
+    public CompileCache(@Value("${compile.cache.dir}") String directory,
+                        @Value("${compile.cache.max-size}") DataSize maxSize,
+                        MeterRegistry meterRegistry) throws IOException {
+        this.directory = Path.of(directory).toAbsolutePath();
+        this.maxBytes = maxSize.toBytes();
+        // durations of entries from an earlier run are unknown, so start empty
+        FileSystemUtils.deleteRecursively(this.directory);
+        Files.createDirectories(this.directory);
+        hits = Counter.builder("compile.cache.requests").tag("result", "hit").register(meterRegistry);
+        misses = Counter.builder("compile.cache.requests").tag("result", "miss").register(meterRegistry);
+        saved = Counter.builder("compile.cache.saved").baseUnit("seconds")
+                .description("Compile time skipped by cache hits").register(meterRegistry);
+        Gauge.builder("compile.cache.size", this, CompileCache::size).baseUnit("bytes").register(meterRegistry);
+    }
+
+    private record Entry(Path directory, long bytes, long compileNanos) {
+    }
+
+    public String key(String language, String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((language + '\0' + SandboxPool.image(language) + '\0').getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest(source.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Copies the cached build output for {@code key} into {@code target}.
+     *
+     * @return false on a miss, in which case the caller compiles and {@link #store}s
+     */
+    public boolean restore(String key, Path target) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            try {
+                copy(entry.directory(), target);
+                hits.increment();
+                saved.increment(entry.compileNanos() / 1e9);
+                return true;
+            } catch (IOException e) {
+                // evicted while copying
+                log.debug("Could not restore build {}: {}", key, e.getMessage());
+            }
+        }
+        misses.increment();
+        return false;
+    }
+
+    /**
+     * Stores the build output of a successful compilation.
+     */
+    public void store(String key, List<Path> files, long compileNanos) {
+        Path staging = directory.resolve(key + "." + UUID.randomUUID());
+        Path target = directory.resolve(key);
+        try {
+            Files.createDirectory(staging);
+            long bytes = 0;
+            for (Path file : files) {
+                Files.copy(file, staging.resolve(file.getFileName()), StandardCopyOption.COPY_ATTRIBUTES);
+                bytes += Files.size(file);
+            }
+            List<Path> evicted = new ArrayList<>();
+            synchronized (this) {
+                if (entries.containsKey(key) || bytes > maxBytes) {
+                    evicted.add(staging);
+                } else {
+                    Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+                    entries.put(key, new Entry(target, bytes, compileNanos));
+                    totalBytes += bytes;
+                    evict(evicted);
+                }
+            }
+            for (Path path : evicted) {
+                FileSystemUtils.deleteRecursively(path);
+            }
+        } catch (IOException e) {
+            log.warn("Could not cache build {}: {}", key, e.getMessage());
+            try {
+                FileSystemUtils.deleteRecursively(staging);
+            } catch (IOException ignored) {
+                // left for the next start
+            }
+        }
+    }
+
+    private void evict(List<Path> evicted) {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            totalBytes -= entry.bytes();
+            evicted.add(entry.directory());
+        }
+    }
+
+    private synchronized long size() {
+        return totalBytes;
+    }
+
+    private static void copy(Path source, Path target) throws IOException {
+        try (Stream<Path> files = Files.list(source)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, target.resolve(file.getFileName()), StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        }
+    }
+}
@@ -1,91 +1,703 @@
 package com.raslan.ExecutionService.service;
 
+import com.raslan.ExecutionService.docker.DockerEngineClient;
+import com.raslan.ExecutionService.docker.ExecStream;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 @Service
 @Slf4j
 public class DockerService {
-    private final Path HOST_CODE_DIR;
+    private static final long TIME_LIMIT_SECONDS = 10;
+    private static final String USAGE_FILE = ".usage";
+    // code goes on the sandbox's tmpfs, emptied by every reset, rather than the run
+    // directory, which lives on the host's disk
+    private static final String SOURCE_ROOT = "/tmp/";
+    private static final Pattern USAGE_LINE = Pattern.compile("cpu=(\\d*),(\\d*) peak=(\\d*) oom=(\\d*),(\\d*)");
+    // shell exit status of a process killed by SIGXCPU
+    private static final int EXIT_CPU_LIMIT = 128 + 24;
 
-    public DockerService(@Value("${code.host-dir}") String hostCodeDirPath) {
-        this.HOST_CODE_DIR = Path.of(hostCodeDirPath).toAbsolutePath();
+    private final SandboxPool sandboxPool;
+    private final DockerEngineClient dockerClient;
+    private final CompileCache compileCache;
+    private final WarmInterpreters warmInterpreters;
+    private final SandboxLimits sandboxLimits;
+    private final int chunkSize;
+    private final long chunkIntervalMillis;
+    private final int batchParallelism;
+    private final int caseOutputChars;
+    private final Set<Run> active = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "execution-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // flushing publishes to Redis, so it gets threads of its own and a slow publish never
+    // holds up the watchdog's deadlines
+    private final ScheduledExecutorService outputFlushers;
+    // writes input to the processes' stdin while their output is read, so neither side
+    // can block the other on a full pipe
+    private final ExecutorService stdinWriters = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "execution-stdin");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // run the test cases of batches next to the worker that leased the sandbox
+    private final ExecutorService batchWorkers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "execution-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public DockerService(SandboxPool sandboxPool,
+                         DockerEngineClient dockerClient,
+                         CompileCache compileCache,
+                         WarmInterpreters warmInterpreters,
+                         SandboxLimits sandboxLimits,
+                         @Value("${execution.output.chunk-size}") DataSize chunkSize,
+                         @Value("${execution.output.chunk-interval}") Duration chunkInterval,
+                         @Value("${execution.output.flush-threads}") int flushThreads,
+                         @Value("${execution.batch.parallelism}") int batchParallelism,
+                         @Value("${execution.batch.case-output}") DataSize caseOutput) {
+        this.sandboxPool = sandboxPool;
+        this.dockerClient = dockerClient;
+        this.compileCache = compileCache;
+        this.warmInterpreters = warmInterpreters;
+        this.sandboxLimits = sandboxLimits;
+        this.chunkSize = (int) chunkSize.toBytes();
+        this.chunkIntervalMillis = chunkInterval.toMillis();
+        this.outputFlushers = Executors.newScheduledThreadPool(Math.max(1, flushThreads), runnable -> {
+            Thread thread = new Thread(runnable, "execution-output");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.batchParallelism = Math.max(1, batchParallelism);
+        this.caseOutputChars = (int) caseOutput.toBytes();
     }
 
-    public String runCode(String language, String code, String input) {
-        try {
-            String id = UUID.randomUUID().toString().substring(0, 8); // Unique ID
-            String codeFilename = language.equals("java") ? "Main.java" : id + getExtension(language);
-            String inputFilename = id + "-input.txt";
+    /**
+     * Runs the code in a sandbox of its language. Compiled languages reuse the build of
+     * an identical earlier submission from the {@link CompileCache}. Output is passed to
+     * {@code chunks} as it is produced; the result holds all of it. The code and the input
+     * are written over the exec stream rather than through the shared volume. Python and
+     * javascript run on the sandbox's {@link WarmInterpreters warm interpreter} when those
+     * are enabled.
+     *
+     * @throws SandboxUnavailableException when no sandbox of the language frees up in time
+     */
+    public ExecutionResult runCode(String roomId, String runId, String language, String code, byte[] input,
+                                   Consumer<ExecutionOutput.Chunk> chunks) {
+        return inSandbox(roomId, runId, language, chunks, ExecutionResult::failed, (run, codeFilename) -> {
+            ExecutionResult prepared = prepare(run, language, code, codeFilename);
+            if (prepared != null) {
+                return prepared;
+            }
+            Exit exit = warmInterpreters.supports(language)
+                    ? execWarm(run, codeFilename, input)
+                    : exec(run, runCommand(run, language, codeFilename), input, run.output, run.deadline, USAGE_FILE);
+            run.usage = run.usage.plus(exit.usage());
+            return exit.exitCode() == null
+                    ? stopped(run, run.output, run.usage())
+                    : completed(run, run.output, exit, run.usage());
+        });
+    }
 
-            // Write code and input to shared directory
-            Path codeFile = HOST_CODE_DIR.resolve(codeFilename);
-            Path inputFile = HOST_CODE_DIR.resolve(inputFilename);
-            Files.writeString(codeFile, code);
-            Files.writeString(inputFile, input);
+    /**
+     * Compiles the code once and runs it against every test case in the same sandbox,
+     * up to {@code execution.batch.parallelism} cases at a time. Each case gets the CPU
+     * time limit, output limit and time limit to itself, but the cases running at once
+     * share the sandbox's memory and process limits; a case killed for memory then is run
+     * again on its own, so the verdict is its own. Cases are passed to {@code results} as
+     * they finish.
+     *
+     * @throws SandboxUnavailableException when no sandbox of the language frees up in time
+     */
+    public BatchResult runBatch(String roomId, String runId, String language, String code, List<TestCase> cases,
+                                Consumer<CaseResult> results) {
+        return inSandbox(roomId, runId, language, chunk -> {
+        }, BatchResult::failed, (run, codeFilename) -> {
+            ExecutionResult prepared = prepare(run, language, code, codeFilename);
+            if (prepared != null) {
+                return BatchResult.notRun(prepared);
+            }
+            run.output.finish();
+            List<CaseResult> caseResults = runCases(run, runCommand(run, language, codeFilename), cases, results);
+            return BatchResult.of(run.output.text(), caseResults, run.usage());
+        });
+    }
 
-            String container = chooseContainerName(language);
-            String command = buildCommand(language, codeFilename, inputFilename);
+    /**
+     * What a run does with its sandbox; {@code codeFilename} is the name the code goes by
+     * in the run's source directory.
+     */
+    @FunctionalInterface
+    private interface RunBody<T> {
+        T run(Run run, String codeFilename) throws IOException;
+    }
 
-            ProcessBuilder processBuilder = new ProcessBuilder(
-                    "docker", "exec", container, "sh", "-c", command
-            );
+    /**
+     * Leases a sandbox of the language, creates a run directory of its own and runs
+     * {@code body} there, registered for cancellation. The sandbox is reset on release;
+     * its warm interpreter survives that unless a process of the run may have been left
+     * running in it.
+     */
+    private <T> T inSandbox(String roomId, String runId, String language,
+                            Consumer<ExecutionOutput.Chunk> chunks, Function<String, T> failed, RunBody<T> body) {
+        Sandbox sandbox;
+        try {
+            sandbox = sandboxPool.lease(language);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed.apply(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return failed.apply(e.getMessage());
+        }
+        String directoryName = UUID.randomUUID().toString();
+        boolean dirty = false;
+        SandboxLimits.Limits limits = sandboxLimits.forLanguage(language);
+        ExecutionOutput output = new ExecutionOutput(chunks, chunkSize, limits.getOutput().toBytes());
+        ScheduledFuture<?> flusher = outputFlushers.scheduleWithFixedDelay(
+                output::flush, chunkIntervalMillis, chunkIntervalMillis, TimeUnit.MILLISECONDS);
+        Run run = null;
+        try {
+            String codeFilename = language.equals("java") ? "Main.java" : "main" + getExtension(language);
+            Path runDirectory = sandboxPool.createRunDirectory(sandbox, directoryName);
+            run = new Run(roomId, runId, sandbox, directoryName, runDirectory, limits, output, System.nanoTime());
+            active.add(run);
+            return body.run(run, codeFilename);
 
-            processBuilder.redirectErrorStream(true);
-            Process process = processBuilder.start();
-            boolean finished = process.waitFor(10, TimeUnit.SECONDS);
+        } catch (IOException | RuntimeException e) {
+            dirty = true;
+            return failed.apply(e.getMessage());
+        } finally {
+            flusher.cancel(false);
+            if (run != null) {
+                active.remove(run);
+                dirty |= run.stopped;
+            }
+            if (dirty) {
+                // a process of the run may be stuck in the interpreter, so the reset
+                // takes it too
+                warmInterpreters.discard(sandbox);
+            }
+            sandboxPool.release(sandbox, warmInterpreters.pid(sandbox));
+        }
+    }
 
-            if (!finished) {
-                process.destroyForcibly();
-                deleteDirectoryFiles();
-                return "Error: Time limit exceeded (10 seconds)";
+    /**
+     * Gets the code ready to run: it is written to the run's source directory through the
+     * exec's stdin and, for compiled languages, built into the run directory in the same
+     * exec. A build the {@link CompileCache} already has is restored instead, and the code
+     * is not sent at all.
+     *
+     * @return the result that ends the run when this did not succeed, or null
+     */
+    private ExecutionResult prepare(Run run, String language, String code, String codeFilename) throws IOException {
+        String source = sourceDirectory(run);
+        String write = "mkdir -p " + source + " && cat > " + source + "/" + codeFilename;
+        byte[] codeBytes = code.getBytes(StandardCharsets.UTF_8);
+        String compileCommand = compileCommand(language, codeFilename, "/app/" + run.directoryName);
+        if (compileCommand == null) {
+            Exit exit = exec(run, write, codeBytes, run.output, run.deadline, USAGE_FILE);
+            if (exit.exitCode() == null) {
+                return stopped(run, run.output, run.usage());
+            }
+            if (exit.exitCode() != 0) {
+                throw new IOException("Could not write the code to the sandbox: " + run.output.text());
             }
-            String output = new String(process.getInputStream().readAllBytes());
-            deleteDirectoryFiles();
+            return null;
+        }
+        String key = compileCache.key(language, code);
+        if (compileCache.restore(key, run.directory)) {
+            return null;
+        }
+        long compileStart = System.nanoTime();
+        // compiled from the source directory so messages name the file as the user knows it
+        Exit exit = exec(run, write + " && cd " + source + " && " + compileCommand, codeBytes,
+                run.output, run.deadline, USAGE_FILE);
+        run.usage = run.usage.plus(exit.usage());
+        if (exit.exitCode() == null) {
+            return stopped(run, run.output, run.usage());
+        }
+        if (exit.exitCode() != 0) {
+            return completed(run, run.output, exit, run.usage());
+        }
+        compileCache.store(key, artifacts(language, run.directory), System.nanoTime() - compileStart);
+        return null;
+    }
+
+    /**
+     * Runs the cases on this thread and up to {@code batchParallelism - 1} others, then
+     * reruns one at a time those that may have been killed for what the others used.
+     */
+    private List<CaseResult> runCases(Run run, String command, List<TestCase> cases, Consumer<CaseResult> results) {
+        CaseResult[] done = new CaseResult[cases.size()];
+        UsageSample[] samples = new UsageSample[cases.size()];
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.min(batchParallelism, cases.size());
+        Runnable worker = () -> {
+            for (int i = next.getAndIncrement(); i < cases.size(); i = next.getAndIncrement()) {
+                done[i] = runCase(run, command, i, cases.get(i), samples);
+                if (workers == 1 || !sharedLimit(done[i])) {
+                    results.accept(done[i]);
+                }
+            }
+        };
+        List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < workers; i++) {
+            helpers.add(batchWorkers.submit(worker));
+        }
+        worker.run();
+        for (Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                run.cancel();
+                throw new IllegalStateException("Interrupted while running test cases", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        for (int i = 0; workers > 1 && i < done.length; i++) {
+            if (sharedLimit(done[i])) {
+                done[i] = runCase(run, command, i, cases.get(i), samples);
+                results.accept(done[i]);
+            }
+        }
+        // cases share the sandbox's cgroup, so its CPU time is only known for all of them
+        run.usage = run.usage.plus(UsageSample.span(samples));
+        return Arrays.asList(done);
+    }
 
+    private CaseResult runCase(Run run, String command, int index, TestCase testCase, UsageSample[] samples) {
+        ExecutionOutput output = new ExecutionOutput(chunk -> {
+        }, chunkSize, run.limits.getOutput().toBytes());
+        long start = System.nanoTime();
+        ExecutionResult result;
+        try {
+            Exit exit = exec(run, command, Objects.requireNonNullElse(testCase.input(), "").getBytes(StandardCharsets.UTF_8),
+                    output, start + TimeUnit.SECONDS.toNanos(TIME_LIMIT_SECONDS), USAGE_FILE + "-" + index);
+            samples[index] = exit.sample();
+            output.finish();
+            result = exit.exitCode() == null ? stopped(run, output, null) : completed(run, output, exit, null);
+        } catch (IOException | RuntimeException e) {
+            run.stopped = true;
+            result = ExecutionResult.failed(e.getMessage());
+        }
+        long timeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Boolean passed = testCase.expected() == null || result.status() != ExecutionResult.Status.COMPLETED ? null
+                : sameOutput(result.output(), testCase.expected());
+        return new CaseResult(index, result.status(), result.exitCode(), preview(result.output()), passed, timeMillis);
+    }
+
+    /**
+     * Whether a case ended on a limit the cases running beside it count against too.
+     */
+    private static boolean sharedLimit(CaseResult result) {
+        return result.status() == ExecutionResult.Status.MEMORY_LIMIT_EXCEEDED;
+    }
+
+    /**
+     * Returns the start of a case's output; results of many cases would otherwise each
+     * carry up to the whole output limit.
+     */
+    private String preview(String output) {
+        if (output.length() <= caseOutputChars) {
             return output;
+        }
+        int end = caseOutputChars;
+        if (end > 0 && Character.isHighSurrogate(output.charAt(end - 1))) {
+            end--;
+        }
+        return output.substring(0, end) + "\n... (" + (output.length() - end) + " more characters)";
+    }
+
+    /**
+     * Compares outputs the way judges usually do: trailing whitespace on a line and
+     * trailing empty lines do not count.
+     */
+    static boolean sameOutput(String actual, String expected) {
+        return normalized(actual).equals(normalized(expected));
+    }
+
+    private static List<String> normalized(String output) {
+        List<String> lines = new ArrayList<>(output.lines().map(String::stripTrailing).toList());
+        while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+            lines.remove(lines.size() - 1);
+        }
+        return lines;
+    }
+
+    /**
+     * Stops the room's runs on this node: the one with {@code runId}, or all of them but
+     * {@code except} when {@code runId} is null. A stopped run ends as
+     * {@link ExecutionResult.Status#CANCELLED} and its processes are killed when its
+     * sandbox is reset.
+     *
+     * @return how many runs were stopped
+     */
+    public int cancel(String roomId, String runId, String except) {
+        int cancelled = 0;
+        for (Run run : active) {
+            if (run.roomId.equals(roomId)
+                    && (runId == null ? !run.runId.equals(except) : run.runId.equals(runId))) {
+                run.cancel();
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * State of one run across its compile and run steps.
+     */
+    private static final class Run {
+        private final String roomId;
+        private final String runId;
+        private final Sandbox sandbox;
+        private final String directoryName;
+        private final Path directory;
+        private final SandboxLimits.Limits limits;
+        private final ExecutionOutput output;
+        private final long start;
+        private final long deadline;
+        private final Set<ExecStream> streams = ConcurrentHashMap.newKeySet();
+        private ResourceUsage usage = ResourceUsage.NONE;
+        // set when a process may still be running in the sandbox
+        private volatile boolean stopped;
+        private volatile boolean cancelled;
+
+        Run(String roomId, String runId, Sandbox sandbox, String directoryName, Path directory,
+            SandboxLimits.Limits limits, ExecutionOutput output, long start) {
+            this.roomId = roomId;
+            this.runId = runId;
+            this.sandbox = sandbox;
+            this.directoryName = directoryName;
+            this.directory = directory;
+            this.limits = limits;
+            this.output = output;
+            this.start = start;
+            this.deadline = start + TimeUnit.SECONDS.toNanos(TIME_LIMIT_SECONDS);
+        }
+
+        ResourceUsage usage() {
+            return usage.withWallTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+
+        void cancel() {
+            cancelled = true;
+            streams.forEach(DockerService::closeQuietly);
+        }
+
+        /**
+         * Adds {@code stream} to the ones {@link #cancel()} closes, closing it right away
+         * when the run was cancelled before it started.
+         */
+        void attach(ExecStream stream) {
+            streams.add(stream);
+            if (cancelled) {
+                closeQuietly(stream);
+            }
+        }
 
-        } catch (IOException | InterruptedException e) {
-            return "Execution failed: " + e.getMessage();
+        void detach(ExecStream stream) {
+            streams.remove(stream);
         }
     }
 
-    private void deleteDirectoryFiles() throws IOException {
-        Files.list(HOST_CODE_DIR)
-                .filter(Files::isRegularFile)
-                .forEach(path -> {
-                    try {
-                        Files.deleteIfExists(path);
-                    } catch (IOException e) {
-                        log.warn("Failed to delete file: {}", path);
-                    }
-                });
+    /**
+     * How an exec ended: its exit code, -1 when unknown, or null when it was stopped at
+     * the deadline, for printing too much or because the run was cancelled. {@code sample}
+     * is null for runs on a warm interpreter, which report their usage themselves.
+     * {@code oomKilled} is set when the kernel killed a process of the sandbox for memory
+     * while it ran.
+     */
+    private record Exit(Integer exitCode, ResourceUsage usage, UsageSample sample, boolean oomKilled) {
+        static final Exit STOPPED = new Exit(null, ResourceUsage.NONE, null, false);
     }
 
+    /**
+     * The sandbox's cgroup CPU usage in microseconds and its count of processes killed for
+     * memory, before and after a command, and its memory high-water mark; each is null
+     * when the sandbox could not report it.
+     */
+    private record UsageSample(Long cpuBefore, Long cpuAfter, Long peak, Long oomBefore, Long oomAfter) {
+        ResourceUsage usage() {
+            Long cpuMillis = cpuBefore == null || cpuAfter == null ? null : (cpuAfter - cpuBefore) / 1000;
+            return new ResourceUsage(0, cpuMillis, peak);
+        }
+
+        boolean oomKilled() {
+            return oomBefore != null && oomAfter != null && oomAfter > oomBefore;
+        }
+
+        /**
+         * Returns the usage of commands that ran at the same time: the CPU used from the
+         * first start to the last end, which nothing else in the sandbox shares.
+         */
+        static ResourceUsage span(UsageSample[] samples) {
+            Long first = null;
+            Long last = null;
+            Long peak = null;
+            for (UsageSample sample : samples) {
+                if (sample == null) {
+                    continue;
+                }
+                first = min(first, sample.cpuBefore);
+                last = sample.cpuAfter == null || last != null && last > sample.cpuAfter ? last : sample.cpuAfter;
+                peak = sample.peak == null || peak != null && peak > sample.peak ? peak : sample.peak;
+            }
+            return new UsageSample(first, last, peak, null, null).usage();
+        }
+
+        private static Long min(Long current, Long value) {
+            return value == null || current != null && current < value ? current : value;
+        }
+    }
+
+    /**
+     * Runs a command in the run's directory under the run's CPU time limit, adding what
+     * it prints to {@code output}. {@code stdin}, when not null, is written to the
+     * command's stdin, which is closed afterwards. Commands of a run may run at the same
+     * time as long as they use different usage files.
+     */
+    private Exit exec(Run run, String command, byte[] stdin, ExecutionOutput output, long deadline,
+                      String usageFile) throws IOException {
+        if (run.cancelled) {
+            return Exit.STOPPED;
+        }
+        String execId = dockerClient.createExec(run.sandbox.container(),
+                List.of("sh", "-c", measured(run, command, usageFile)), stdin != null);
+        AtomicBoolean timedOut = new AtomicBoolean();
+        boolean truncated = false;
+        try (ExecStream stream = dockerClient.startExec(execId)) {
+            // closing the stream unblocks the read below; the process itself is killed
+            // when the sandbox is reset
+            run.attach(stream);
+            if (stdin != null) {
+                stdinWriters.execute(() -> feed(stream, stdin));
+            }
+            ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+                timedOut.set(true);
+                closeQuietly(stream);
+            }, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            try {
+                for (ExecStream.Frame frame = stream.next(); frame != null && !truncated; frame = stream.next()) {
+                    truncated = !output.write(frame.source(), frame.data());
+                }
+            } catch (IOException e) {
+                if (!timedOut.get() && !run.cancelled) {
+                    throw e;
+                }
+            } finally {
+                timeout.cancel(false);
+                run.detach(stream);
+            }
+        }
+        if (timedOut.get() || truncated || run.cancelled) {
+            run.stopped = true;
+            return Exit.STOPPED;
+        }
+        UsageSample sample = readUsage(run.directory.resolve(usageFile));
+        Integer exitCode = dockerClient.inspectExec(execId).exitCode();
+        return new Exit(exitCode == null ? -1 : exitCode, sample == null ? ResourceUsage.NONE : sample.usage(), sample,
+                sample != null && sample.oomKilled());
+    }
+
+    /**
+     * Runs the code file on the sandbox's warm interpreter, under the run's deadline like
+     * {@link #exec}. A run that is stopped takes the interpreter with it.
+     */
+    private Exit execWarm(Run run, String codeFilename, byte[] stdin) throws IOException {
+        if (run.cancelled) {
+            return Exit.STOPPED;
+        }
+        WarmInterpreters.Interpreter interpreter = warmInterpreters.acquire(run.sandbox);
+        AtomicBoolean timedOut = new AtomicBoolean();
+        WarmInterpreters.Outcome outcome = null;
+        run.attach(interpreter.stream());
+        ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+            timedOut.set(true);
+            interpreter.close();
+        }, run.deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        try {
+            outcome = interpreter.run(sourceDirectory(run), codeFilename, stdin, run.output);
+        } catch (IOException e) {
+            if (!timedOut.get() && !run.cancelled) {
+                throw e;
+            }
+        } finally {
+            timeout.cancel(false);
+            run.detach(interpreter.stream());
+        }
+        if (outcome == null || timedOut.get() || run.cancelled) {
+            run.stopped = true;
+            return Exit.STOPPED;
+        }
+        warmInterpreters.release(run.sandbox, interpreter, outcome.leaked());
+        return new Exit(outcome.exitCode(), new ResourceUsage(0, outcome.cpuMillis(), outcome.peakBytes()), null,
+                outcome.oomKills() != null && outcome.oomKills() > 0);
+    }
+
+    /**
+     * Writes the input to the exec's stdin and closes it. A program that exits or is
+     * stopped before reading all of it makes the write fail, which is not an error.
+     */
+    private static void feed(ExecStream stream, byte[] stdin) {
+        try {
+            stream.stdin().write(stdin);
+            stream.closeStdin();
+        } catch (IOException e) {
+            log.debug("Stopped writing stdin: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Wraps a command so it runs with {@code ulimit -t} and leaves the sandbox's cgroup
+     * CPU usage and OOM kill count before and after it, and its memory high-water mark, in
+     * the usage file. Sandboxes run one run at a time, so the differences are the run's.
+     */
+    private static String measured(Run run, String command, String usageFile) {
+        String cpuUsage = "sed -n 's/^usage_usec //p' /sys/fs/cgroup/cpu.stat 2>/dev/null";
+        String oomKills = "sed -n 's/^oom_kill //p' /sys/fs/cgroup/memory.events 2>/dev/null";
+        long cpuSeconds = Math.max(1, run.limits.getCpuTime().toSeconds());
+        // the hard limit is a second later, so the soft one ends the process with SIGXCPU
+        // rather than the SIGKILL a single limit would send
+        return "cd /app/" + run.directoryName + " || exit 1; "
+                + "u0=$(" + cpuUsage + "); o0=$(" + oomKills + "); "
+                + "(ulimit -S -t " + cpuSeconds + "; ulimit -H -t " + (cpuSeconds + 1) + "; " + command + "); s=$?; "
+                + "echo \"cpu=$u0,$(" + cpuUsage + ") peak=$(cat /sys/fs/cgroup/memory.peak 2>/dev/null)"
+                + " oom=$o0,$(" + oomKills + ")\" > " + usageFile + "; "
+                + "exit $s";
+    }
+
+    private static UsageSample readUsage(Path file) {
+        try {
+            Matcher matcher = USAGE_LINE.matcher(Files.readString(file).trim());
+            Files.delete(file);
+            if (!matcher.matches()) {
+                return null;
+            }
+            return new UsageSample(parse(matcher.group(1)), parse(matcher.group(2)), parse(matcher.group(3)),
+                    parse(matcher.group(4)), parse(matcher.group(5)));
+        } catch (IOException | NumberFormatException e) {
+            log.debug("No usage recorded in {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private static Long parse(String number) {
+        return number.isEmpty() ? null : Long.parseLong(number);
+    }
+
+    private static ExecutionResult completed(Run run, ExecutionOutput output, Exit exit, ResourceUsage usage) {
+        output.finish();
+        int exitCode = exit.exitCode();
+        if (exitCode == EXIT_CPU_LIMIT) {
+            return new ExecutionResult(ExecutionResult.Status.CPU_TIME_LIMIT_EXCEEDED, exitCode,
+                    output.text() + "\nError: CPU time limit exceeded (" + run.limits.getCpuTime().toSeconds() + " seconds)",
+                    usage);
+        }
+        if (exitCode != 0 && exit.oomKilled()) {
+            // a SIGKILL from anything else, or a failure with memory to spare, is the
+            // program's own error
+            return new ExecutionResult(ExecutionResult.Status.MEMORY_LIMIT_EXCEEDED, exitCode,
+                    output.text() + "\nError: Memory limit exceeded (" + run.limits.getMemory() + ")", usage);
+        }
+        return new ExecutionResult(ExecutionResult.Status.COMPLETED, exitCode, output.text(), usage);
+    }
+
+    private static ExecutionResult stopped(Run run, ExecutionOutput output, ResourceUsage usage) {
+        output.finish();
+        if (run.cancelled) {
+            return new ExecutionResult(ExecutionResult.Status.CANCELLED, -1,
+                    output.text() + "\nCancelled", usage);
+        }
+        if (output.isTruncated()) {
+            return new ExecutionResult(ExecutionResult.Status.OUTPUT_LIMIT_EXCEEDED, -1,
+                    output.text() + "\nError: Output limit exceeded (" + run.limits.getOutput() + ")", usage);
+        }
+        return new ExecutionResult(ExecutionResult.Status.TIMED_OUT, -1,
+                output.text() + "\nError: Time limit exceeded (" + TIME_LIMIT_SECONDS + " seconds)", usage);
+    }
+
+    private static List<Path> artifacts(String language, Path runDirectory) throws IOException {
+        try (Stream<Path> files = Files.list(runDirectory)) {
+            return files.filter(file -> isArtifact(language, file.getFileName().toString())).toList();
+        }
+    }
+
+    private static void closeQuietly(ExecStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            log.warn("Failed to close exec stream: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the command that builds the source in the current directory into
+     * {@code outputDirectory}, or null for interpreted languages.
+     */
+    private static String compileCommand(String language, String codeFilename, String outputDirectory) {
+        return switch (language) {
+            case "java" -> "javac -d " + outputDirectory + " " + codeFilename;
+            case "cpp" -> "g++ " + codeFilename + " -o " + outputDirectory + "/a.out";
+            default -> null;
+        };
+    }
+
+    /**
+     * Where the run's code is in the sandbox; interpreted programs run from there.
+     */
+    private static String sourceDirectory(Run run) {
+        return SOURCE_ROOT + run.directoryName;
+    }
 
-    private String chooseContainerName(String language) {
+    private static boolean isArtifact(String language, String filename) {
         return switch (language) {
-            case "java" -> "code-java";
-            case "python" -> "code-python";
-            case "javascript" -> "code-node";
-            case "cpp" -> "code-cpp";
-            default -> throw new IllegalArgumentException("Unsupported language: " + language);
+            case "java" -> filename.endsWith(".class");
+            case "cpp" -> filename.equals("a.out");
+            default -> false;
         };
     }
 
-    private String buildCommand(String language, String codeFilename, String inputFilename) {
+    private static String runCommand(Run run, String language, String codeFilename) {
         return switch (language) {
-            case "java" -> "javac /app/" + codeFilename + " && cat /app/" + inputFilename + " | java -cp /app Main";
-            case "python" -> "cat /app/" + inputFilename + " | python3 /app/" + codeFilename;
-            case "javascript" -> "cat /app/" + inputFilename + " | node /app/" + codeFilename;
-            case "cpp" -> "g++ /app/" + codeFilename + " -o /app/a.out && cat /app/" + inputFilename + " | /app/a.out";
+            case "java" -> "java -cp . Main";
+            case "python" -> "cd " + sourceDirectory(run) + " && python3 " + codeFilename;
+            case "javascript" -> "cd " + sourceDirectory(run) + " && node " + codeFilename;
+            case "cpp" -> "./a.out";
             default -> "";
         };
     }
@@ -0,0 +1,114 @@
+package com.raslan.ExecutionService.service;
+
+import com.raslan.ExecutionService.docker.ExecStream;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Collects what a run prints and hands it on in ordered chunks while the run is still
+ * going. Output is batched until {@code chunkSize} bytes are pending or {@link #flush()}
+ * is called, and chunks never split a UTF-8 character. Once the run has printed
+ * {@code maxBytes} the rest is dropped and {@link #write} tells the caller to stop it.
+ */
+class ExecutionOutput {
+    private final Consumer<Chunk> listener;
+    private final int chunkSize;
+    private final long maxBytes;
+    private final ByteArrayOutputStream all = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private ExecStream.Source pendingSource;
+    private int sequence;
+    private boolean truncated;
+
+    ExecutionOutput(Consumer<Chunk> listener, int chunkSize, long maxBytes) {
+        this.listener = listener;
+        this.chunkSize = chunkSize;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * One batch of output. {@code sequence} counts up from 0 within a run.
+     */
+    record Chunk(int sequence, String stream, String data) {
+    }
+
+    /**
+     * Adds output of the run.
+     *
+     * @return false once the output limit is reached and the run should be stopped
+     */
+    synchronized boolean write(ExecStream.Source source, byte[] data) {
+        if (truncated) {
+            return false;
+        }
+        if (source != pendingSource) {
+            publish(pending.size());
+            pendingSource = source;
+        }
+        int accepted = (int) Math.min(data.length, maxBytes - all.size());
+        all.write(data, 0, accepted);
+        pending.write(data, 0, accepted);
+        if (accepted < data.length) {
+            truncated = true;
+            publish(pending.size());
+            return false;
+        }
+        if (pending.size() >= chunkSize) {
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * Publishes pending output, keeping back a trailing character that is not complete
+     * yet.
+     */
+    synchronized void flush() {
+        byte[] bytes = pending.toByteArray();
+        publish(bytes.length - incompleteTail(bytes));
+    }
+
+    /**
+     * Publishes everything that is left once the run is over.
+     */
+    synchronized void finish() {
+        publish(pending.size());
+    }
+
+    synchronized boolean isTruncated() {
+        return truncated;
+    }
+
+    synchronized String text() {
+        return all.toString(StandardCharsets.UTF_8);
+    }
+
+    private void publish(int length) {
+        if (length == 0) {
+            return;
+        }
+        byte[] bytes = pending.toByteArray();
+        pending.reset();
+        pending.write(bytes, length, bytes.length - length);
+        String stream = pendingSource == ExecStream.Source.STDERR ? "stderr" : "stdout";
+        listener.accept(new Chunk(sequence++, stream, new String(bytes, 0, length, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Returns how many bytes at the end belong to a UTF-8 character whose remaining
+     * bytes have not arrived yet.
+     */
+    private static int incompleteTail(byte[] bytes) {
+        for (int back = 1; back <= Math.min(4, bytes.length); back++) {
+            int b = bytes[bytes.length - back] & 0xFF;
+            if ((b & 0xC0) == 0x80) {
+                continue;
+            }
+            int length = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+            return length > back ? back : 0;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,16 @@
+package com.raslan.ExecutionService.service;
+
+/**
+ * Outcome of one execution. {@code exitCode} is the process's exit status, or -1 when it
+ * never finished; {@code usage} is null when the run never started.
+ */
+public record ExecutionResult(Status status, int exitCode, String output, ResourceUsage usage) {
+
+    public enum Status {
+        COMPLETED, TIMED_OUT, CPU_TIME_LIMIT_EXCEEDED, MEMORY_LIMIT_EXCEEDED, OUTPUT_LIMIT_EXCEEDED, CANCELLED, FAILED
+    }
+
+    public static ExecutionResult failed(String message) {
+        return new ExecutionResult(Status.FAILED, -1, "Execution failed: " + message, null);
+    }
+}
@@ -5,6 +5,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.stereotype.Service;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Service
@@ -12,23 +14,125 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class ExecutionService {
     private final DockerService dockerService;
-    private final RedisPublisher redisPublisher;
+    private final ResultPublisher resultPublisher;
+    private final ResultCache resultCache;
+    private final SubmissionScheduler submissionScheduler;
+
     @RabbitListener(queues = "${rabbitmq.queue.name}")
-    public void handleExecution(Map<String, String> submission) {
+    public void handleExecution(Map<String, String> ticket) {
+        String roomId = ticket.get("roomId");
+        Map<String, String> submission = submissionScheduler.claim(roomId);
+        if (submission == null) {
+            log.info("Ticket of room {} has nothing left to run", roomId);
+            return;
+        }
         log.info("Received submission Request : {}",submission);
-        String output = dockerService.runCode(
-                submission.get("language"),
-                submission.get("code"),
-                submission.get("input")
-        );
-        log.info("Execution completed, output: {}", output);
+        boolean started = true;
+        try {
+            execute(roomId, submission);
+        } catch (SandboxUnavailableException e) {
+            // hand the submission back so a worker with a free language picks up other work
+            log.info("Requeueing submission of room {}: {}", roomId, e.getMessage());
+            started = false;
+            submissionScheduler.unclaim(roomId, submission);
+        } catch (RuntimeException e) {
+            // the room is waiting for a result to enable running again
+            log.error("Execution of room {} failed", roomId, e);
+            failed(roomId, submission.getOrDefault("runId", ""), e);
+        } finally {
+            if (started) {
+                submissionScheduler.finish(roomId, submission);
+            }
+        }
+    }
+
+    private void execute(String roomId, Map<String, String> submission) {
+        String language = submission.get("language");
+        String code = submission.get("code");
+        String runId = submission.getOrDefault("runId", "");
+        List<TestCase> cases;
+        byte[] input;
+        try {
+            cases = submissionScheduler.testCases(submission);
+            input = cases == null ? submissionScheduler.input(submission) : null;
+        } catch (IllegalStateException e) {
+            publishResult(roomId, runId, ExecutionResult.failed(e.getMessage()));
+            return;
+        }
+        if (cases != null) {
+            executeBatch(roomId, runId, language, code, cases);
+            return;
+        }
+        ExecutionResult result = resultCache.get(language, code, input).orElse(null);
+        if (result == null) {
+            result = dockerService.runCode(roomId, runId, language, code, input,
+                    chunk -> publishChunk(roomId, runId, chunk));
+            resultCache.put(language, code, input, result);
+        }
+        log.info("Execution completed with status {} and exit code {}", result.status(), result.exitCode());
+        publishResult(roomId, runId, result);
+    }
+
+    private void failed(String roomId, String runId, RuntimeException cause) {
+        try {
+            publishResult(roomId, runId, ExecutionResult.failed(cause.getMessage()));
+        } catch (RuntimeException e) {
+            log.error("Could not publish the failure of room {}", roomId, e);
+        }
+    }
+
+    private void publishResult(String roomId, String runId, ExecutionResult result) {
+        // output was streamed already, but the result carries all of it for clients that
+        // missed chunks and for results served from the cache
         Map<String, Object> message = Map.of(
-                "roomId", submission.get("roomId"),
+                "roomId", roomId,
                 "event", "EXECUTION_RESULT"
         );
-        redisPublisher.publish(
-                "execution:result:"+submission.get("roomId"),
-                Map.of("message", message, "output", output)
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("message", message);
+        payload.put("runId", runId);
+        payload.put("output", result.output());
+        payload.put("status", result.status());
+        payload.put("exitCode", result.exitCode());
+        payload.put("usage", result.usage());
+        resultPublisher.publish(roomId, payload);
+    }
+
+    /**
+     * Runs a batch, publishing each case's result as it finishes and the verdict at the
+     * end; results of batches are not cached.
+     */
+    private void executeBatch(String roomId, String runId, String language, String code, List<TestCase> cases) {
+        BatchResult result = dockerService.runBatch(roomId, runId, language, code, cases,
+                caseResult -> resultPublisher.publish(
+                        roomId,
+                        Map.of(
+                                "message", Map.of("roomId", roomId, "event", "EXECUTION_CASE_RESULT"),
+                                "runId", runId,
+                                "case", caseResult)
+                ));
+        log.info("Batch of {} cases completed with verdict {}", cases.size(), result.verdict());
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("message", Map.of("roomId", roomId, "event", "EXECUTION_BATCH_RESULT"));
+        payload.put("runId", runId);
+        payload.put("verdict", result.verdict());
+        payload.put("passed", result.passed());
+        payload.put("total", cases.size());
+        payload.put("output", result.output());
+        payload.put("cases", result.cases().stream().map(CaseResult::summary).toList());
+        payload.put("usage", result.usage());
+        resultPublisher.publish(roomId, payload);
+    }
+
+    private void publishChunk(String roomId, String runId, ExecutionOutput.Chunk chunk) {
+        resultPublisher.publish(
+                roomId,
+                Map.of(
+                        "message", Map.of("roomId", roomId, "event", "EXECUTION_OUTPUT_CHUNK"),
+                        "runId", runId,
+                        "sequence", chunk.sequence(),
+                        "stream", chunk.stream(),
+                        "data", chunk.data())
         );
     }
 }
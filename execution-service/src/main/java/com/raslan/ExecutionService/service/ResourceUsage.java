@@ -0,0 +1,28 @@
+package com.raslan.ExecutionService.service;
+
+/**
+ * What a run used. CPU time and peak memory are null when the sandbox could not report
+ * them, e.g. for runs stopped at the time limit. {@code memoryPeakBytes} is the
+ * sandbox's high-water mark, which includes earlier runs on kernels that cannot reset it,
+ * except for runs on a warm interpreter, which report their own.
+ */
+public record ResourceUsage(long wallTimeMillis, Long cpuTimeMillis, Long memoryPeakBytes) {
+
+    static final ResourceUsage NONE = new ResourceUsage(0, null, null);
+
+    /**
+     * Adds the usage of another step of the same run.
+     */
+    ResourceUsage plus(ResourceUsage other) {
+        return new ResourceUsage(
+                wallTimeMillis + other.wallTimeMillis,
+                cpuTimeMillis == null ? other.cpuTimeMillis
+                        : other.cpuTimeMillis == null ? cpuTimeMillis : cpuTimeMillis + other.cpuTimeMillis,
+                memoryPeakBytes == null ? other.memoryPeakBytes
+                        : other.memoryPeakBytes == null ? memoryPeakBytes : Math.max(memoryPeakBytes, other.memoryPeakBytes));
+    }
+
+    ResourceUsage withWallTime(long wallTimeMillis) {
+        return new ResourceUsage(wallTimeMillis, cpuTimeMillis, memoryPeakBytes);
+    }
+}
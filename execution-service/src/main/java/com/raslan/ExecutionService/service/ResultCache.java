@@ -0,0 +1,143 @@
+package com.raslan.ExecutionService.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Remembers the result of completed runs so submitting the same language, code and input
+ * again returns the stored output without leasing a sandbox. Only worth enabling where
+ * programs are deterministic; languages can be left out one by one.
+ * <p>
+ * {@code store} picks where results live: {@code local} keeps them in this node's memory
+ * up to {@code max-size}, {@code redis} shares them between nodes, and {@code none}
+ * turns the cache off. Results larger than {@code max-entry-size} are never stored.
+ */
+@Component
+@Slf4j
+public class ResultCache {
+    private static final String KEY_PREFIX = "execution:result-cache:";
+
+    public enum Store {
+        NONE, LOCAL, REDIS
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final Store store;
+    private final Duration ttl;
+    private final long maxEntryBytes;
+    private final Set<String> excludedLanguages;
+    private final Cache<String, ExecutionResult> local;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public ResultCache(StringRedisTemplate redisTemplate,
+                       ObjectMapper objectMapper,
+                       @Value("${execution.result-cache.store}") String store,
+                       @Value("${execution.result-cache.ttl}") Duration ttl,
+                       @Value("${execution.result-cache.max-size}") DataSize maxSize,
+                       @Value("${execution.result-cache.max-entry-size}") DataSize maxEntrySize,
+                       @Value("${execution.result-cache.excluded-languages:}") String excludedLanguages,
+                       MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.store = Store.valueOf(store.toUpperCase());
+        this.ttl = ttl;
+        this.maxEntryBytes = maxEntrySize.toBytes();
+        this.excludedLanguages = StringUtils.commaDelimitedListToSet(excludedLanguages.replace(" ", ""));
+        this.local = this.store != Store.LOCAL ? null : Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .<String, ExecutionResult>weigher((key, result) -> result.output().length())
+                .expireAfterWrite(ttl)
+                .build();
+        hits = Counter.builder("execution.result-cache.requests").tag("result", "hit").register(meterRegistry);
+        misses = Counter.builder("execution.result-cache.requests").tag("result", "miss").register(meterRegistry);
+    }
+
+    public Optional<ExecutionResult> get(String language, String code, byte[] input) {
+        if (!enabled(language)) {
+            return Optional.empty();
+        }
+        ExecutionResult result = store == Store.LOCAL
+                ? local.getIfPresent(key(language, code, input))
+                : readRedis(key(language, code, input));
+        (result == null ? misses : hits).increment();
+        return Optional.ofNullable(result);
+    }
+
+    /**
+     * Stores a result; only completed runs are kept, timeouts and failures run again.
+     */
+    public void put(String language, String code, byte[] input, ExecutionResult result) {
+        if (!enabled(language) || result.status() != ExecutionResult.Status.COMPLETED
+                || result.output().length() > maxEntryBytes) {
+            return;
+        }
+        String key = key(language, code, input);
+        if (store == Store.LOCAL) {
+            local.put(key, result);
+            return;
+        }
+        try {
+            redisTemplate.opsForValue().set(KEY_PREFIX + key, objectMapper.writeValueAsString(result), ttl);
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.warn("Could not cache execution result: {}", e.getMessage());
+        }
+    }
+
+    private boolean enabled(String language) {
+        return store != Store.NONE && SandboxPool.LANGUAGES.contains(language)
+                && !excludedLanguages.contains(language);
+    }
+
+    private ExecutionResult readRedis(String key) {
+        try {
+            String json = redisTemplate.opsForValue().get(KEY_PREFIX + key);
+            return json == null ? null : objectMapper.readValue(json, ExecutionResult.class);
+        } catch (JsonProcessingException | RuntimeException e) {
+            // a cache that cannot be read only costs a run
+            log.warn("Could not read cached execution result: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static String key(String language, String code, byte[] input) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{language, SandboxPool.image(language), code}) {
+                update(digest, Objects.requireNonNullElse(part, "").getBytes(StandardCharsets.UTF_8));
+            }
+            update(digest, Objects.requireNonNullElse(input, new byte[0]));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, byte[] bytes) {
+        // length-prefixed so the parts cannot run into each other
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+}
@@ -0,0 +1,61 @@
+package com.raslan.ExecutionService.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+
+/**
+ * Publishes the execution events of a room. They go to the room's result channel in
+ * Redis, from where the collaboration service hands them to the room's sessions, unless
+ * the collaboration service relays STOMP to RabbitMQ ({@code messaging.broker=relay}):
+ * then they go straight to the room's STOMP topic, so no collaboration node has to
+ * forward them. Either way the event is serialized once, as the JSON the sessions read,
+ * and passed on as those bytes.
+ */
+@Service
+@Slf4j
+public class ResultPublisher {
+    // RabbitMQ's STOMP plugin maps /topic/<name> to this exchange with <name> as routing key
+    private static final String STOMP_TOPIC_EXCHANGE = "amq.topic";
+
+    private final RedisPublisher redisPublisher;
+    private final RabbitTemplate rabbitTemplate;
+    private final ObjectMapper objectMapper;
+    private final boolean relay;
+
+    public ResultPublisher(RedisPublisher redisPublisher,
+                           RabbitTemplate rabbitTemplate,
+                           ObjectMapper objectMapper,
+                           @Value("${messaging.broker}") String broker) {
+        this.redisPublisher = redisPublisher;
+        this.rabbitTemplate = rabbitTemplate;
+        this.objectMapper = objectMapper;
+        this.relay = broker.equalsIgnoreCase("relay");
+    }
+
+    public void publish(String roomId, Map<String, Object> payload) {
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(payload);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+        Object event = ((Map<?, ?>) payload.get("message")).get("event");
+        if (!relay) {
+            redisPublisher.publish("execution:result:" + roomId, body);
+            log.debug("{} message published to pub/sub from room {}", event, roomId);
+            return;
+        }
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        rabbitTemplate.send(STOMP_TOPIC_EXCHANGE, "room." + roomId, new Message(body, properties));
+        log.debug("{} message published to the STOMP topic of room {}", event, roomId);
+    }
+}
@@ -0,0 +1,94 @@
+package com.raslan.ExecutionService.service;
+
+import com.raslan.ExecutionService.config.MessageCodec;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Stops the runs named on the cancel channel. Every node gets every message and only the
+ * one running a matching run acts on it.
+ * <p>
+ * The channel is subscribed in the background once the service is up, retrying with a
+ * doubling backoff while Redis is unreachable; until then runs cannot be cancelled but
+ * still end at their deadline.
+ */
+@Component
+@Slf4j
+public class RunCancellationSubscriber implements MessageListener {
+    public static final String CHANNEL = "execution:cancel";
+
+    private final DockerService dockerService;
+    private final MessageCodec messageCodec;
+    private final RedisMessageListenerContainer container;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private volatile boolean closed;
+
+    public RunCancellationSubscriber(DockerService dockerService,
+                                     MessageCodec messageCodec,
+                                     RedisMessageListenerContainer container,
+                                     @Value("${execution.cancel.subscribe-backoff}") Duration backoff,
+                                     @Value("${execution.cancel.subscribe-max-backoff}") Duration maxBackoff) {
+        this.dockerService = dockerService;
+        this.messageCodec = messageCodec;
+        this.container = container;
+        this.backoffMillis = backoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribe() {
+        container.addMessageListener(this, new ChannelTopic(CHANNEL));
+        Thread thread = new Thread(this::start, "execution-cancel-subscriber");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void close() {
+        closed = true;
+    }
+
+    private void start() {
+        long backoff = backoffMillis;
+        while (!closed) {
+            try {
+                container.start();
+                log.info("Subscribed to {}", CHANNEL);
+                return;
+            } catch (RuntimeException ex) {
+                // a failed start leaves the container started without a subscription
+                container.stop();
+                log.warn("Could not subscribe to {}, retrying in {} ms: {}", CHANNEL, backoff, ex.getMessage());
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoff = Math.min(backoff * 2, maxBackoffMillis);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onMessage(Message message, byte[] pattern) {
+        Map<String, String> cancel = messageCodec.decode(message.getBody(), Map.class);
+        int cancelled = dockerService.cancel(cancel.get("roomId"), cancel.get("runId"), cancel.get("except"));
+        if (cancelled > 0) {
+            log.info("Cancelled {} run(s) of room {}", cancelled, cancel.get("roomId"));
+        }
+    }
+}
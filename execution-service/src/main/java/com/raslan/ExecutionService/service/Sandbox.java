@@ -0,0 +1,10 @@
+package com.raslan.ExecutionService.service;
+
+import java.nio.file.Path;
+
+/**
+ * A running container leased to one execution at a time. {@code directory} is this
+ * service's view of the folder mounted at {@code /app} inside the container.
+ */
+public record Sandbox(String language, String container, Path directory) {
+}
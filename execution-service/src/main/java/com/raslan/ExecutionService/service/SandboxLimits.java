@@ -0,0 +1,47 @@
+package com.raslan.ExecutionService.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resource limits of sandboxes and the runs in them. {@code defaults} applies to every
+ * language; entries under {@code languages} override single values for one language.
+ */
+@Component
+@ConfigurationProperties(prefix = "sandbox.limits")
+@Data
+public class SandboxLimits {
+    private Limits defaults = new Limits();
+    private Map<String, Limits> languages = new HashMap<>();
+
+    @Data
+    public static class Limits {
+        /** Memory of the sandbox, without swap. */
+        private DataSize memory;
+        /** CPU cores the sandbox may use at once. */
+        private Double cpus;
+        /** Processes and threads that may exist in the sandbox. */
+        private Integer pids;
+        /** CPU time of each process of a run. */
+        private Duration cpuTime;
+        /** Output a run may print before it is stopped. */
+        private DataSize output;
+    }
+
+    public Limits forLanguage(String language) {
+        Limits override = languages.getOrDefault(language, new Limits());
+        Limits limits = new Limits();
+        limits.setMemory(override.getMemory() != null ? override.getMemory() : defaults.getMemory());
+        limits.setCpus(override.getCpus() != null ? override.getCpus() : defaults.getCpus());
+        limits.setPids(override.getPids() != null ? override.getPids() : defaults.getPids());
+        limits.setCpuTime(override.getCpuTime() != null ? override.getCpuTime() : defaults.getCpuTime());
+        limits.setOutput(override.getOutput() != null ? override.getOutput() : defaults.getOutput());
+        return limits;
+    }
+}
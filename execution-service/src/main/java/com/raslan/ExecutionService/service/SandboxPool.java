@@ -0,0 +1,367 @@
+package com.raslan.ExecutionService.service;
+
+import com.raslan.ExecutionService.docker.DockerEngineClient;
+import com.raslan.ExecutionService.docker.ExecStream;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Keeps pre-started sandbox containers for every language so an execution only has to
+ * lease one instead of sharing a single long-lived container. Each language keeps at
+ * least {@code min-size} sandboxes warm and starts more, up to {@code max-size}, when
+ * executions are waiting; beyond that a lease waits for a sandbox to come back.
+ * <p>
+ * Every run gets its own directory inside the sandbox's folder. A released sandbox is
+ * reset in the background before it is leased again: every process but its warm
+ * interpreter is killed and the run directories, {@code /tmp} and {@code /dev/shm} are
+ * emptied. The rest of its file system is read-only, so nothing a run leaves behind is
+ * visible to the next one.
+ */
+@Component
+@Slf4j
+public class SandboxPool {
+    static final List<String> LANGUAGES = List.of("java", "python", "javascript", "cpp");
+    // the only writable place of a sandbox besides its run directories and /dev/shm
+    private static final String SCRATCH_SIZE = "64m";
+
+    private final DockerEngineClient dockerClient;
+    private final SandboxLimits sandboxLimits;
+    private final Path hostCodeDir;
+    private final String sandboxHostDir;
+    private final int minSize;
+    private final int maxSize;
+    private final long leaseTimeoutMillis;
+    private final int warmUpAttempts;
+    private final long warmUpBackoffMillis;
+    private final String resetScript;
+    private final Map<String, LanguagePool> pools = new ConcurrentHashMap<>();
+    private final ExecutorService resetters = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "sandbox-reset");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SandboxPool(DockerEngineClient dockerClient,
+                       SandboxLimits sandboxLimits,
+                       @Value("${code.host-dir}") String hostCodeDirPath,
+                       @Value("${sandbox.host-dir:}") String sandboxHostDir,
+                       @Value("${sandbox.pool.min-size}") int minSize,
+                       @Value("${sandbox.pool.max-size}") int maxSize,
+                       @Value("${sandbox.pool.lease-timeout-ms}") long leaseTimeoutMillis,
+                       @Value("${sandbox.pool.warm-up-attempts}") int warmUpAttempts,
+                       @Value("${sandbox.pool.warm-up-backoff}") Duration warmUpBackoff,
+                       MeterRegistry meterRegistry) {
+        this.dockerClient = dockerClient;
+        this.sandboxLimits = sandboxLimits;
+        this.hostCodeDir = Path.of(hostCodeDirPath).toAbsolutePath();
+        // the Docker daemon resolves bind mounts on its own host, which differs from this
+        // service's view of the folder when it runs in a container itself
+        this.sandboxHostDir = sandboxHostDir.isBlank() ? hostCodeDir.toString() : sandboxHostDir;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        this.warmUpAttempts = Math.max(1, warmUpAttempts);
+        this.warmUpBackoffMillis = warmUpBackoff.toMillis();
+        try {
+            this.resetScript = new ClassPathResource("scripts/reset_sandbox.sh").getContentAsString(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (String language : LANGUAGES) {
+            LanguagePool pool = new LanguagePool(language, Timer.builder("sandbox.lease.wait")
+                    .tag("language", language)
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry));
+            pools.put(language, pool);
+            Gauge.builder("sandbox.pool.size", pool.total, AtomicInteger::get)
+                    .tag("language", language).register(meterRegistry);
+            Gauge.builder("sandbox.pool.idle", pool.idle, BlockingQueue::size)
+                    .tag("language", language).register(meterRegistry);
+            Gauge.builder("sandbox.pool.leased", pool.leased, Set::size)
+                    .tag("language", language).register(meterRegistry);
+        }
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        for (LanguagePool pool : pools.values()) {
+            background("sandbox-warm-up-" + pool.language, () -> warmUp(pool));
+        }
+    }
+
+    /**
+     * Starts sandboxes until the pool holds {@code min-size}. A start that fails is
+     * retried after a backoff that doubles each time; after {@code warm-up-attempts}
+     * failures in a row the pool is left smaller, and leases start sandboxes on demand.
+     */
+    private void warmUp(LanguagePool pool) {
+        int failures = 0;
+        long backoffMillis = warmUpBackoffMillis;
+        while (pool.total.get() < minSize && pool.reserve()) {
+            try {
+                pool.idle.add(start(pool));
+                failures = 0;
+                backoffMillis = warmUpBackoffMillis;
+            } catch (RuntimeException ex) {
+                if (++failures >= warmUpAttempts) {
+                    log.warn("Could not start a {} sandbox, giving up warming up after {} attempts: {}",
+                            pool.language, failures, ex.getMessage());
+                    return;
+                }
+                log.warn("Could not start a {} sandbox, retrying in {} ms: {}", pool.language, backoffMillis, ex.getMessage());
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoffMillis *= 2;
+            }
+        }
+    }
+
+    /**
+     * Takes a sandbox for one execution, starting a new one when none is idle and the
+     * pool may still grow.
+     *
+     * @throws SandboxUnavailableException when the pool is full and none comes back in time
+     */
+    public Sandbox lease(String language) throws InterruptedException {
+        LanguagePool pool = pool(language);
+        long start = System.nanoTime();
+        try {
+            Sandbox sandbox = pool.idle.poll();
+            if (sandbox == null && pool.reserve()) {
+                sandbox = start(pool);
+            }
+            if (sandbox == null) {
+                sandbox = pool.idle.poll(leaseTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            if (sandbox == null) {
+                throw new SandboxUnavailableException("No " + language + " sandbox available");
+            }
+            pool.leased.add(sandbox);
+            return sandbox;
+        } finally {
+            pool.leaseWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Creates the directory of one run in a leased sandbox. The container sees it as
+     * {@code /app/<runId>}.
+     */
+    public Path createRunDirectory(Sandbox sandbox, String runId) throws IOException {
+        return Files.createDirectory(sandbox.directory().resolve(runId));
+    }
+
+    /**
+     * Returns a sandbox after its execution. It is reset in the background and leased
+     * again once that is done; a sandbox that cannot be reset is replaced.
+     *
+     * @param warmInterpreter pid of the sandbox's warm interpreter, which the reset
+     *                        spares, or null when it has none or it has to go too
+     */
+    public void release(Sandbox sandbox, Integer warmInterpreter) {
+        LanguagePool pool = pool(sandbox.language());
+        pool.leased.remove(sandbox);
+        resetters.execute(() -> {
+            try {
+                List<String> command = new ArrayList<>(List.of("sh", "-c", resetScript, "reset_sandbox"));
+                if (warmInterpreter != null) {
+                    command.add(warmInterpreter.toString());
+                }
+                exec(sandbox, command);
+                pool.idle.add(sandbox);
+            } catch (IOException | RuntimeException ex) {
+                log.warn("Could not reset sandbox {}, replacing it: {}", sandbox.container(), ex.getMessage());
+                discard(pool, sandbox);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        resetters.shutdown();
+        for (LanguagePool pool : pools.values()) {
+            Stream.concat(pool.idle.stream(), pool.leased.stream()).forEach(this::remove);
+        }
+    }
+
+    private LanguagePool pool(String language) {
+        LanguagePool pool = pools.get(language);
+        if (pool == null) {
+            throw new IllegalArgumentException("Unsupported language: " + language);
+        }
+        return pool;
+    }
+
+    private void startInto(LanguagePool pool) {
+        try {
+            pool.idle.add(start(pool));
+        } catch (RuntimeException ex) {
+            log.warn("Could not start a {} sandbox: {}", pool.language, ex.getMessage());
+        }
+    }
+
+    /**
+     * Starts a sandbox for a slot already reserved in the pool; the slot is given back if
+     * the container fails to start.
+     */
+    private Sandbox start(LanguagePool pool) {
+        String container = "sandbox-" + pool.language + "-" + UUID.randomUUID().toString().substring(0, 8);
+        SandboxLimits.Limits limits = sandboxLimits.forLanguage(pool.language);
+        try {
+            Path directory = Files.createDirectories(hostCodeDir.resolve(container));
+            dockerClient.createContainer(container, Map.of(
+                    "Image", image(pool.language),
+                    "Cmd", List.of("tail", "-f", "/dev/null"),
+                    "WorkingDir", "/app",
+                    "Labels", Map.of("code-collab.sandbox", pool.language),
+                    "HostConfig", Map.of(
+                            "AutoRemove", true,
+                            "ReadonlyRootfs", true,
+                            "Tmpfs", Map.of("/tmp", "rw,exec,nosuid,size=" + SCRATCH_SIZE),
+                            "Binds", List.of(sandboxHostDir + "/" + container + ":/app"),
+                            // swap equal to memory means no swap at all
+                            "Memory", limits.getMemory().toBytes(),
+                            "MemorySwap", limits.getMemory().toBytes(),
+                            "NanoCpus", (long) (limits.getCpus() * 1_000_000_000L),
+                            "PidsLimit", limits.getPids())));
+            dockerClient.startContainer(container);
+            log.info("Started sandbox {}", container);
+            return new Sandbox(pool.language, container, directory);
+        } catch (IOException | RuntimeException ex) {
+            pool.total.decrementAndGet();
+            try {
+                dockerClient.removeContainer(container);
+            } catch (RuntimeException ignored) {
+                // it was never created
+            }
+            throw ex instanceof RuntimeException runtime ? runtime : new IllegalStateException(ex);
+        }
+    }
+
+    private void discard(LanguagePool pool, Sandbox sandbox) {
+        remove(sandbox);
+        pool.total.decrementAndGet();
+        if (pool.total.get() < minSize && pool.reserve()) {
+            background("sandbox-replace", () -> startInto(pool));
+        }
+    }
+
+    private void remove(Sandbox sandbox) {
+        try {
+            dockerClient.removeContainer(sandbox.container());
+            delete(sandbox.directory());
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Could not remove sandbox {}: {}", sandbox.container(), ex.getMessage());
+        }
+    }
+
+    private static void background(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                    if (ex != null) {
+                        throw ex;
+                    }
+                    Files.deleteIfExists(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (NoSuchFileException ignored) {
+            // already gone with its sandbox
+        }
+    }
+
+    private void exec(Sandbox sandbox, List<String> command) throws IOException {
+        String execId = dockerClient.createExec(sandbox.container(), command, false);
+        try (ExecStream stream = dockerClient.startExec(execId)) {
+            while (stream.next() != null) {
+                // drain until the command exits
+            }
+        }
+    }
+
+    static String image(String language) {
+        return switch (language) {
+            case "java" -> "openjdk:21-slim";
+            case "python" -> "python:3.12-slim";
+            case "javascript" -> "node:20-alpine";
+            case "cpp" -> "gcc:13";
+            default -> throw new IllegalArgumentException("Unsupported language: " + language);
+        };
+    }
+
+    private final class LanguagePool {
+        private final String language;
+        private final BlockingQueue<Sandbox> idle = new LinkedBlockingQueue<>();
+        private final Set<Sandbox> leased = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger total = new AtomicInteger();
+        private final Timer leaseWait;
+
+        LanguagePool(String language, Timer leaseWait) {
+            this.language = language;
+            this.leaseWait = leaseWait;
+        }
+
+        /**
+         * Claims room for one more sandbox, or returns false when the pool is full.
+         */
+        boolean reserve() {
+            int current;
+            do {
+                current = total.get();
+                if (current >= maxSize) {
+                    return false;
+                }
+            } while (!total.compareAndSet(current, current + 1));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.raslan.ExecutionService.service;
+
+/**
+ * Thrown when every sandbox of a language stays leased for the whole lease timeout.
+ */
+public class SandboxUnavailableException extends RuntimeException {
+    public SandboxUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,165 @@
+package com.raslan.ExecutionService.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The execution side of fair scheduling between rooms. The queue carries tickets naming
+ * a room while the room's latest submission waits in Redis, where the collaboration
+ * service put it; a worker holding a ticket claims that submission, and a finishing run
+ * queues the room's next ticket when the room has another submission waiting.
+ * <p>
+ * Large inputs and the test cases of batch submissions are not part of the submission:
+ * the collaboration service stores them under their own keys, named by the submission's
+ * {@code inputKey} and {@code casesKey}, so the scripts that move submissions around
+ * never copy them.
+ */
+@Component
+@Slf4j
+public class SubmissionScheduler {
+    private static final String PREFIX = "execution:room:";
+    private static final RedisScript<String> CLAIM = script("claim_submission", String.class);
+    private static final RedisScript<Long> UNCLAIM = script("unclaim_submission", Long.class);
+    private static final RedisScript<Long> FINISH = script("finish_submission", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final RabbitTemplate rabbitTemplate;
+    private final ObjectMapper objectMapper;
+    private final String queueName;
+    private final String retryQueueName;
+    private final int maxInFlightPerRoom;
+    private final String pendingTtlSeconds;
+    private final String runningTtlSeconds;
+
+    public SubmissionScheduler(StringRedisTemplate redisTemplate,
+                               RabbitTemplate rabbitTemplate,
+                               ObjectMapper objectMapper,
+                               @Value("${rabbitmq.queue.name}") String queueName,
+                               @Value("${rabbitmq.retry-queue.name}") String retryQueueName,
+                               @Value("${execution.max-in-flight-per-room}") int maxInFlightPerRoom,
+                               @Value("${execution.pending-ttl}") Duration pendingTtl,
+                               @Value("${execution.running-ttl}") Duration runningTtl) {
+        this.redisTemplate = redisTemplate;
+        this.rabbitTemplate = rabbitTemplate;
+        this.objectMapper = objectMapper;
+        this.queueName = queueName;
+        this.retryQueueName = retryQueueName;
+        this.maxInFlightPerRoom = maxInFlightPerRoom;
+        this.pendingTtlSeconds = String.valueOf(pendingTtl.toSeconds());
+        this.runningTtlSeconds = String.valueOf(runningTtl.toSeconds());
+    }
+
+    /**
+     * Takes the room's pending submission and counts it as in flight.
+     *
+     * @return the submission, or null when a newer ticket already took it
+     */
+    public Map<String, String> claim(String roomId) {
+        String submission = redisTemplate.execute(CLAIM, keys(roomId), runningTtlSeconds);
+        if (submission == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(submission, new TypeReference<>() {});
+        } catch (JsonProcessingException e) {
+            finish(roomId, null);
+            throw new IllegalStateException("Unreadable submission of room " + roomId, e);
+        }
+    }
+
+    /**
+     * Puts a claimed submission back, unless the room has submitted something newer since,
+     * and queues the room's ticket again through the retry queue, so it comes back after
+     * the requeue delay instead of straight away to a worker that cannot run it either.
+     */
+    public void unclaim(String roomId, Map<String, String> submission) {
+        try {
+            redisTemplate.execute(UNCLAIM, keys(roomId), objectMapper.writeValueAsString(submission), pendingTtlSeconds);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        rabbitTemplate.convertAndSend(retryQueueName, Map.of("roomId", roomId));
+    }
+
+    /**
+     * Returns the submission's input as the UTF-8 bytes written to the program's stdin,
+     * read straight from Redis when it was stored apart from the submission.
+     */
+    public byte[] input(Map<String, String> submission) {
+        String inputKey = submission.get("inputKey");
+        if (inputKey == null) {
+            return submission.getOrDefault("input", "").getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] input = redisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(inputKey.getBytes(StandardCharsets.UTF_8)));
+        if (input == null) {
+            throw new IllegalStateException("Input of run " + submission.get("runId") + " has expired");
+        }
+        return input;
+    }
+
+    /**
+     * Returns the test cases of a batch submission, or null for a single run.
+     */
+    public List<TestCase> testCases(Map<String, String> submission) {
+        String casesKey = submission.get("casesKey");
+        if (casesKey == null) {
+            return null;
+        }
+        String cases = redisTemplate.opsForValue().get(casesKey);
+        if (cases == null) {
+            throw new IllegalStateException("Test cases of run " + submission.get("runId") + " have expired");
+        }
+        try {
+            return objectMapper.readValue(cases, new TypeReference<>() {});
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable test cases of run " + submission.get("runId"), e);
+        }
+    }
+
+    /**
+     * Ends one of the room's runs, dropping its stored input and test cases, and queues a
+     * ticket for the room's next submission if one is waiting.
+     */
+    public void finish(String roomId, Map<String, String> submission) {
+        List<String> stored = new ArrayList<>();
+        if (submission != null) {
+            for (String key : List.of("inputKey", "casesKey")) {
+                if (submission.containsKey(key)) {
+                    stored.add(submission.get(key));
+                }
+            }
+        }
+        if (!stored.isEmpty()) {
+            redisTemplate.delete(stored);
+        }
+        Long queue = redisTemplate.execute(FINISH, keys(roomId), String.valueOf(maxInFlightPerRoom), pendingTtlSeconds);
+        if (queue != null && queue == 1) {
+            rabbitTemplate.convertAndSend(queueName, Map.of("roomId", roomId));
+            log.info("Queued the next ticket of room {}", roomId);
+        }
+    }
+
+    private static List<String> keys(String roomId) {
+        return List.of(PREFIX + roomId + ":pending", PREFIX + roomId + ":ticket", PREFIX + roomId + ":running");
+    }
+
+    private static <T> RedisScript<T> script(String name, Class<T> resultType) {
+        return RedisScript.of(new ClassPathResource("scripts/" + name + ".lua"), resultType);
+    }
+}
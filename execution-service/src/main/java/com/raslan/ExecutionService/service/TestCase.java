@@ -0,0 +1,8 @@
+package com.raslan.ExecutionService.service;
+
+/**
+ * One input of a batch submission, with the output it should produce or null when the
+ * output is not checked.
+ */
+public record TestCase(String input, String expected) {
+}
@@ -0,0 +1,280 @@
+package com.raslan.ExecutionService.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.raslan.ExecutionService.docker.DockerEngineClient;
+import com.raslan.ExecutionService.docker.ExecStream;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Warm interpreters of python and javascript sandboxes, enabled with
+ * {@code execution.warm-interpreter.enabled}. A warm interpreter is a long-lived exec in
+ * the sandbox that takes runs over its stdin and answers with framed output (see
+ * {@code scripts/warm}), so a run pays neither for an exec of its own nor for
+ * interpreter startup; every run still gets a fresh process.
+ * <p>
+ * An interpreter is started on its sandbox's first run and replaced after
+ * {@code max-runs} runs, when a run leaves processes behind, and when a run is stopped.
+ * Resetting the sandbox between runs spares it. It lives in the sandbox's cgroup, so it
+ * takes its share of the memory limit.
+ */
+@Component
+@Slf4j
+public class WarmInterpreters {
+    private static final Map<String, String> SERVERS = Map.of(
+            "python", "python_server.py",
+            "javascript", "node_server.js");
+
+    private final DockerEngineClient dockerClient;
+    private final SandboxLimits sandboxLimits;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final int maxRuns;
+    private final Map<String, String> scripts = new HashMap<>();
+    private final Map<String, Interpreter> interpreters = new ConcurrentHashMap<>();
+
+    public WarmInterpreters(DockerEngineClient dockerClient,
+                            SandboxLimits sandboxLimits,
+                            ObjectMapper objectMapper,
+                            @Value("${execution.warm-interpreter.enabled}") boolean enabled,
+                            @Value("${execution.warm-interpreter.max-runs}") int maxRuns) {
+        this.dockerClient = dockerClient;
+        this.sandboxLimits = sandboxLimits;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.maxRuns = maxRuns;
+        SERVERS.forEach((language, file) -> {
+            try {
+                scripts.put(language, new ClassPathResource("scripts/warm/" + file)
+                        .getContentAsString(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * How a run on a warm interpreter ended. CPU time and peak memory are the run's own
+     * and null when it was killed before it could report them; {@code oomKills} is how
+     * many processes the sandbox's cgroup killed for memory while it ran, null when the
+     * sandbox does not count them; {@code leaked} is set when it left processes behind,
+     * which were killed.
+     */
+    record Outcome(int exitCode, Long cpuMillis, Long peakBytes, Long oomKills, boolean leaked) {
+    }
+
+    boolean supports(String language) {
+        return enabled && SERVERS.containsKey(language);
+    }
+
+    /**
+     * Returns the interpreter of a leased sandbox, starting one when it has none.
+     */
+    Interpreter acquire(Sandbox sandbox) {
+        Interpreter interpreter = interpreters.get(sandbox.container());
+        if (interpreter == null) {
+            interpreter = start(sandbox);
+            interpreters.put(sandbox.container(), interpreter);
+        }
+        return interpreter;
+    }
+
+    /**
+     * Returns the pid of the sandbox's interpreter inside its container, or null when it
+     * has none.
+     */
+    Integer pid(Sandbox sandbox) {
+        Interpreter interpreter = interpreters.get(sandbox.container());
+        return interpreter == null ? null : interpreter.pid;
+    }
+
+    /**
+     * Takes back an interpreter after a run that ended on its own, replacing it when it
+     * is worn out or the run leaked processes. The replacement starts right away so it
+     * is warm by the sandbox's next run.
+     */
+    void release(Sandbox sandbox, Interpreter interpreter, boolean leaked) {
+        if (leaked || interpreter.runs >= maxRuns) {
+            log.info("Recycling the warm interpreter of {} after {} runs{}", sandbox.container(),
+                    interpreter.runs, leaked ? ", the last of which leaked processes" : "");
+            discard(sandbox);
+            try {
+                interpreters.put(sandbox.container(), start(sandbox));
+            } catch (RuntimeException e) {
+                log.warn("Could not restart the warm interpreter of {}: {}", sandbox.container(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Drops the interpreter of a sandbox whose processes are about to be killed, or
+     * whose interpreter cannot be trusted any more.
+     */
+    void discard(Sandbox sandbox) {
+        Interpreter interpreter = interpreters.remove(sandbox.container());
+        if (interpreter != null) {
+            interpreter.close();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        interpreters.values().forEach(Interpreter::close);
+        interpreters.clear();
+    }
+
+    private Interpreter start(Sandbox sandbox) {
+        String language = sandbox.language();
+        String cpuSeconds = String.valueOf(Math.max(1, sandboxLimits.forLanguage(language).getCpuTime().toSeconds()));
+        List<String> command = language.equals("python")
+                ? List.of("python3", "-c", scripts.get(language), cpuSeconds)
+                : List.of("node", "-e", scripts.get(language), cpuSeconds);
+        String execId = dockerClient.createExec(sandbox.container(), command, true);
+        Interpreter interpreter = new Interpreter(dockerClient.startExec(execId), sandbox.container());
+        try {
+            interpreter.pid = interpreter.readPid();
+        } catch (IOException | RuntimeException e) {
+            interpreter.close();
+            throw new IllegalStateException("Warm interpreter of " + sandbox.container() + " did not start", e);
+        }
+        log.info("Started a warm interpreter in {}", sandbox.container());
+        return interpreter;
+    }
+
+    /**
+     * The attached streams of one warm interpreter. Used by one run at a time, like its
+     * sandbox.
+     */
+    final class Interpreter implements Closeable {
+        private final ExecStream stream;
+        private final DataInputStream frames;
+        private int pid;
+        private int runs;
+
+        private Interpreter(ExecStream stream, String container) {
+            this.stream = stream;
+            this.frames = new DataInputStream(new StdoutInput(stream, container));
+        }
+
+        ExecStream stream() {
+            return stream;
+        }
+
+        private int readPid() throws IOException {
+            int kind = frames.readUnsignedByte();
+            byte[] payload = frames.readNBytes(frames.readInt());
+            if (kind != 'p') {
+                throw new IOException("Expected the warm interpreter's pid, got frame " + kind);
+            }
+            return Integer.parseInt(new String(payload, StandardCharsets.US_ASCII));
+        }
+
+        /**
+         * Runs {@code file} in {@code directory}, an absolute path in the sandbox, with
+         * {@code stdin} as its input, adding what it prints to {@code output}.
+         *
+         * @return how it ended, or null when it printed more than {@code output} takes
+         * and the interpreter has to go
+         */
+        Outcome run(String directory, String file, byte[] stdin, ExecutionOutput output) throws IOException {
+            runs++;
+            OutputStream requests = stream.stdin();
+            requests.write(objectMapper.writeValueAsBytes(Map.of("dir", directory, "file", file, "stdin", stdin.length)));
+            requests.write('\n');
+            requests.write(stdin);
+            for (;;) {
+                int kind = frames.readUnsignedByte();
+                int length = frames.readInt();
+                byte[] payload = frames.readNBytes(length);
+                if (payload.length < length) {
+                    throw new EOFException("Warm interpreter closed mid-frame");
+                }
+                switch (kind) {
+                    case 'o', 'e' -> {
+                        if (!output.write(kind == 'o' ? ExecStream.Source.STDOUT : ExecStream.Source.STDERR, payload)) {
+                            return null;
+                        }
+                    }
+                    case 'x' -> {
+                        return objectMapper.readValue(payload, Outcome.class);
+                    }
+                    default -> throw new IOException("Unknown warm interpreter frame " + kind);
+                }
+            }
+        }
+
+        /**
+         * Ends the interpreter: at the end of its input it exits, and a spare it keeps
+         * goes with it.
+         */
+        @Override
+        public void close() {
+            try (stream) {
+                stream.closeStdin();
+            } catch (IOException e) {
+                log.debug("Warm interpreter already gone: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The interpreter's stdout as one stream of bytes; what it prints on stderr is only
+     * logged, as nothing of a run goes there.
+     */
+    private static final class StdoutInput extends InputStream {
+        private final ExecStream stream;
+        private final String container;
+        private byte[] frame = new byte[0];
+        private int position;
+
+        StdoutInput(ExecStream stream, String container) {
+            this.stream = stream;
+            this.container = container;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (position == frame.length) {
+                ExecStream.Frame next = stream.next();
+                if (next == null) {
+                    return -1;
+                }
+                if (next.source() == ExecStream.Source.STDERR) {
+                    log.warn("Warm interpreter of {}: {}", container, new String(next.data(), StandardCharsets.UTF_8).trim());
+                    continue;
+                }
+                frame = next.data();
+                position = 0;
+            }
+            int count = Math.min(length, frame.length - position);
+            System.arraycopy(frame, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
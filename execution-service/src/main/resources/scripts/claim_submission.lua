@@ -0,0 +1,13 @@
+-- Takes a room's pending submission for the worker that received the room's ticket.
+-- KEYS: pending submission, ticket flag, running counter
+-- ARGV: running ttl seconds
+-- Returns the submission, or false when the ticket is stale and there is nothing to run.
+redis.call('DEL', KEYS[2])
+local submission = redis.call('GET', KEYS[1])
+if not submission then
+    return false
+end
+redis.call('DEL', KEYS[1])
+redis.call('INCR', KEYS[3])
+redis.call('EXPIRE', KEYS[3], ARGV[1])
+return submission
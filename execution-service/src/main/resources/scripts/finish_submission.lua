@@ -0,0 +1,15 @@
+-- Ends one of a room's runs.
+-- KEYS: pending submission, ticket flag, running counter
+-- ARGV: in-flight limit, pending ttl seconds
+-- Returns 1 when the caller has to queue a ticket for the room's pending submission.
+local running = redis.call('DECR', KEYS[3])
+if running <= 0 then
+    redis.call('DEL', KEYS[3])
+    running = 0
+end
+if redis.call('EXISTS', KEYS[1]) == 0 or redis.call('EXISTS', KEYS[2]) == 1
+        or running >= tonumber(ARGV[1]) then
+    return 0
+end
+redis.call('SET', KEYS[2], '1', 'EX', ARGV[2])
+return 1
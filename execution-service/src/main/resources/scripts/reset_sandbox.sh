@@ -0,0 +1,34 @@
+# Resets a sandbox between runs. Kills every process but the container's init, this shell
+# and the warm interpreter whose pid is $1, with that interpreter's children (the spare of
+# a Node interpreter), then empties every place a run can write to; the rest of the
+# container's file system is read-only. Only builtins run in the kill loop, so it never
+# meets a process of its own, and it repeats until a pass finds nothing left to kill.
+keep=${1:--}
+pass=0
+while [ "$pass" -lt 10 ]; do
+  pass=$((pass + 1))
+  found=
+  for status in /proc/[0-9]*/status; do
+    pid=
+    ppid=
+    state=
+    { while read -r key value rest; do
+      case $key in
+        State:) state=$value ;;
+        Pid:) pid=$value ;;
+        PPid:) ppid=$value; break ;;
+      esac
+    done < "$status"; } 2>/dev/null || continue
+    case $pid in
+      ''|1|$$|$keep) continue ;;
+    esac
+    # zombies are gone already, they only wait for init to reap them
+    if [ "$state" = Z ] || [ "$ppid" = "$keep" ]; then
+      continue
+    fi
+    kill -9 "$pid" 2>/dev/null && found=1
+  done
+  [ -z "$found" ] && break
+done
+rm -rf /app/* /app/.[!.]* /app/..?* /tmp/* /tmp/.[!.]* /tmp/..?* /dev/shm/* 2>/dev/null
+exit 0
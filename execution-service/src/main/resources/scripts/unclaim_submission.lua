@@ -0,0 +1,10 @@
+-- Gives back a claimed submission whose run could not start; the caller queues the ticket again.
+-- KEYS: pending submission, ticket flag, running counter
+-- ARGV: submission, pending ttl seconds
+-- A submission the room made in the meantime is kept instead of the one given back.
+if redis.call('DECR', KEYS[3]) <= 0 then
+    redis.call('DEL', KEYS[3])
+end
+redis.call('SET', KEYS[1], ARGV[1], 'NX', 'EX', ARGV[2])
+redis.call('SET', KEYS[2], '1', 'EX', ARGV[2])
+return 1
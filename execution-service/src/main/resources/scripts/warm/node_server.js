@@ -0,0 +1,153 @@
+// Warm Node interpreter of a sandbox. Node cannot fork, so the server keeps a spare
+// interpreter started ahead of time; each run takes the spare and starts the next one,
+// so a run starts without paying for interpreter startup and gets a fresh process.
+// argv: CPU time limit in seconds
+// Request: a JSON line {"dir", "file", "stdin"} followed by "stdin" bytes of input; "dir"
+// is the absolute directory the file is in.
+// Response frames on stdout: a type byte, a big-endian 4 byte length and the payload;
+// "o" and "e" carry the run's stdout and stderr, "x" ends the run with a JSON object
+// {"exitCode", "cpuMillis", "peakBytes", "oomKills", "leaked"}. A "p" frame with the server's pid
+// comes first, so resetting the sandbox can spare it and its spare.
+const { spawn } = require('child_process');
+const fs = require('fs');
+const os = require('os');
+
+const CPU_SECONDS = Number(process.argv[1]);
+
+// Runs in the spare: waits for its run, then runs the file as the main module. The CPU
+// time used since then is written to fd 4 on the way out; a spare whose server is gone
+// exits.
+const LOADER = `
+const fs = require('fs');
+const path = require('path');
+const gone = () => process.exit(0);
+process.on('disconnect', gone);
+process.once('message', ({ dir, file }) => {
+  process.off('disconnect', gone);
+  process.disconnect();
+  const start = process.cpuUsage();
+  process.on('exit', () => {
+    const cpu = process.cpuUsage(start);
+    const usage = { cpuMicros: cpu.user + cpu.system, maxRSS: process.resourceUsage().maxRSS };
+    try {
+      fs.writeSync(4, JSON.stringify(usage));
+    } catch (e) {
+      // the server no longer listens
+    }
+  });
+  process.chdir(dir);
+  process.argv[1] = path.resolve(file);
+  require('module').runMain();
+});
+`;
+
+function startSpare() {
+  // the hard limit is a second later, so the soft one ends the process with SIGXCPU
+  const child = spawn('sh', ['-c', `ulimit -S -t ${CPU_SECONDS}; ulimit -H -t ${CPU_SECONDS + 1}; exec node -e "$0"`, LOADER], {
+    stdio: ['pipe', 'pipe', 'pipe', 'ipc', 'pipe'],
+    detached: true,
+  });
+  child.stdout.pause();
+  child.stderr.pause();
+  return child;
+}
+
+function send(kind, payload) {
+  const header = Buffer.alloc(5);
+  header.write(kind, 0);
+  header.writeUInt32BE(payload.length, 1);
+  process.stdout.write(Buffer.concat([header, payload]));
+}
+
+function oomKills() {
+  try {
+    const match = /^oom_kill (\d+)$/m.exec(fs.readFileSync('/sys/fs/cgroup/memory.events', 'utf8'));
+    return match ? Number(match[1]) : null;
+  } catch (e) {
+    return null;
+  }
+}
+
+// whatever the run left behind would keep its pipes open
+function killGroup(pid) {
+  try {
+    process.kill(-pid, 'SIGKILL');
+    return true;
+  } catch (e) {
+    return false;
+  }
+}
+
+send('p', Buffer.from(String(process.pid)));
+let spare = startSpare();
+const requests = [];
+let running = false;
+
+function run({ dir, file, input }) {
+  running = true;
+  const oomBefore = oomKills();
+  const child = spare;
+  spare = startSpare();
+  let usage = null;
+  let leaked = false;
+  child.stdio[4].on('data', (data) => {
+    try {
+      usage = JSON.parse(data.toString());
+    } catch (e) {
+      // killed mid-write
+    }
+  });
+  child.stdout.on('data', (data) => send('o', data));
+  child.stderr.on('data', (data) => send('e', data));
+  child.stdout.resume();
+  child.stderr.resume();
+  child.stdin.on('error', () => {
+    // the run exited without reading all of its input
+  });
+  child.stdin.end(input);
+  child.send({ dir, file });
+  child.on('exit', () => {
+    leaked = killGroup(child.pid);
+  });
+  child.on('close', (code, signal) => {
+    const oomAfter = oomKills();
+    send('x', Buffer.from(JSON.stringify({
+      exitCode: signal ? 128 + os.constants.signals[signal] : code,
+      cpuMillis: usage ? Math.floor(usage.cpuMicros / 1000) : null,
+      peakBytes: usage ? usage.maxRSS * 1024 : null,
+      oomKills: oomBefore === null || oomAfter === null ? null : oomAfter - oomBefore,
+      leaked,
+    })));
+    running = false;
+    next();
+  });
+}
+
+function next() {
+  if (!running && requests.length > 0) {
+    run(requests.shift());
+  }
+}
+
+let buffered = Buffer.alloc(0);
+process.stdin.on('data', (data) => {
+  buffered = Buffer.concat([buffered, data]);
+  for (;;) {
+    const newline = buffered.indexOf(10);
+    if (newline < 0) {
+      return;
+    }
+    const request = JSON.parse(buffered.subarray(0, newline).toString());
+    if (buffered.length < newline + 1 + request.stdin) {
+      return;
+    }
+    request.input = buffered.subarray(newline + 1, newline + 1 + request.stdin);
+    buffered = buffered.subarray(newline + 1 + request.stdin);
+    requests.push(request);
+    next();
+  }
+});
+process.stdin.on('end', () => {
+  spare.kill('SIGKILL');
+  process.exit(0);
+});
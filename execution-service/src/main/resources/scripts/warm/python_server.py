@@ -0,0 +1,154 @@
+# Warm Python interpreter of a sandbox. Reads runs from stdin and forks a child for each,
+# so a run starts without paying for interpreter startup and gets a fresh namespace.
+# argv: CPU time limit in seconds
+# Request: a JSON line {"dir", "file", "stdin"} followed by "stdin" bytes of input; "dir"
+# is the absolute directory the file is in.
+# Response frames on stdout: a type byte, a big-endian 4 byte length and the payload;
+# "o" and "e" carry the run's stdout and stderr, "x" ends the run with a JSON object
+# {"exitCode", "cpuMillis", "peakBytes", "oomKills", "leaked"}. A "p" frame with the server's pid
+# comes first, so resetting the sandbox can spare it.
+import json
+import os
+import resource
+import runpy
+import select
+import signal
+import struct
+import sys
+import traceback
+
+CPU_SECONDS = int(sys.argv[1])
+requests = sys.stdin.buffer
+frames = sys.stdout.buffer
+
+
+def send(kind, payload):
+    frames.write(kind + struct.pack('>I', len(payload)) + payload)
+    frames.flush()
+
+
+def child(request, stdin_fd, out_w, err_w):
+    # the fork must never get back to the server's loop, whatever fails in it
+    code = 1
+    try:
+        code = execute(request, stdin_fd, out_w, err_w)
+    finally:
+        os._exit(code & 0xFF)
+
+
+def execute(request, stdin_fd, out_w, err_w):
+    os.setsid()
+    os.dup2(stdin_fd, 0)
+    os.dup2(out_w, 1)
+    os.dup2(err_w, 2)
+    for fd in (stdin_fd, out_w, err_w):
+        os.close(fd)
+    sys.stdin = open(0, 'r', closefd=False)
+    sys.stdout = open(1, 'w', closefd=False)
+    sys.stderr = open(2, 'w', closefd=False)
+    code = 0
+    path = None
+    try:
+        os.chdir(request['dir'])
+        resource.setrlimit(resource.RLIMIT_CPU, (CPU_SECONDS, CPU_SECONDS + 1))
+        path = os.path.abspath(request['file'])
+        sys.argv = [path]
+        sys.path[0] = os.path.dirname(path)
+        runpy.run_path(path, run_name='__main__')
+    except SystemExit as e:
+        if e.code is None:
+            code = 0
+        elif isinstance(e.code, int):
+            code = e.code
+        else:
+            print(e.code, file=sys.stderr)
+            code = 1
+    except BaseException as e:
+        # leave out the frames of this server, as a plain interpreter would; a failure
+        # before the run started keeps them all
+        tb = e.__traceback__
+        while path is not None and tb is not None and tb.tb_frame.f_code.co_filename != path:
+            tb = tb.tb_next
+        traceback.print_exception(type(e), e, tb)
+        code = 1
+    sys.stdout.flush()
+    sys.stderr.flush()
+    return code
+
+
+def oom_kills():
+    try:
+        with open('/sys/fs/cgroup/memory.events') as events:
+            for line in events:
+                name, value = line.split()
+                if name == 'oom_kill':
+                    return int(value)
+    except OSError:
+        pass
+    return None
+
+
+def run(request, data):
+    oom_before = oom_kills()
+    stdin_fd = os.memfd_create('stdin')
+    with open(stdin_fd, 'wb', closefd=False) as f:
+        f.write(data)
+    os.lseek(stdin_fd, 0, os.SEEK_SET)
+    out_r, out_w = os.pipe()
+    err_r, err_w = os.pipe()
+    pid = os.fork()
+    if pid == 0:
+        os.close(out_r)
+        os.close(err_r)
+        child(request, stdin_fd, out_w, err_w)
+    for fd in (stdin_fd, out_w, err_w):
+        os.close(fd)
+    kinds = {out_r: b'o', err_r: b'e'}
+    status = None
+    usage = None
+    leaked = False
+    while kinds:
+        ready, _, _ = select.select(list(kinds), [], [], 0.05)
+        for fd in ready:
+            data = os.read(fd, 65536)
+            if data:
+                send(kinds[fd], data)
+            else:
+                os.close(fd)
+                del kinds[fd]
+        if status is None:
+            waited, status, usage = os.wait4(pid, os.WNOHANG)
+            if waited == 0:
+                status = None
+            else:
+                # whatever the run left behind would keep its pipes open
+                leaked = kill_group(pid)
+    if status is None:
+        _, status, usage = os.wait4(pid, 0)
+        leaked = kill_group(pid)
+    exit_code = os.waitstatus_to_exitcode(status)
+    oom_after = oom_kills()
+    send(b'x', json.dumps({
+        'exitCode': exit_code if exit_code >= 0 else 128 - exit_code,
+        'cpuMillis': int((usage.ru_utime + usage.ru_stime) * 1000),
+        'peakBytes': usage.ru_maxrss * 1024,
+        'oomKills': None if oom_before is None or oom_after is None else oom_after - oom_before,
+        'leaked': leaked,
+    }).encode())
+
+
+def kill_group(pid):
+    try:
+        os.killpg(pid, signal.SIGKILL)
+        return True
+    except ProcessLookupError:
+        return False
+
+
+send(b'p', str(os.getpid()).encode())
+while True:
+    line = requests.readline()
+    if not line:
+        break
+    request = json.loads(line)
+    run(request, requests.read(request['stdin']))
@@ -0,0 +1,230 @@
+package com.raslan.ExecutionService.docker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DockerEngineClientTest {
+
+    @TempDir
+    Path directory;
+
+    private StubDaemon daemon;
+    private DockerEngineClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Path socket = directory.resolve("docker.sock");
+        daemon = new StubDaemon(socket);
+        client = new DockerEngineClient(socket.toString(), 4, new ObjectMapper());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        daemon.close();
+    }
+
+    @Test
+    void requestsReuseOneConnection() {
+        String execId = client.createExec("sandbox", List.of("sh", "-c", "true"), false);
+        DockerEngineClient.ExecState state = client.inspectExec(execId);
+
+        assertEquals("exec-1", execId);
+        assertFalse(state.running());
+        assertEquals(3, state.exitCode());
+        assertEquals(1, daemon.connections.get());
+        assertEquals(List.of("POST /v1.41/containers/sandbox/exec", "GET /v1.41/exec/exec-1/json"), daemon.requests);
+    }
+
+    @Test
+    void execStreamDemultiplexesOutputAndForwardsStdin() throws IOException {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        try (ExecStream stream = client.startExec("exec-1")) {
+            stream.stdin().write("input".getBytes(StandardCharsets.UTF_8));
+            stream.closeStdin();
+            for (ExecStream.Frame frame = stream.next(); frame != null; frame = stream.next()) {
+                (frame.source() == ExecStream.Source.STDERR ? stderr : stdout).write(frame.data());
+            }
+            assertNull(stream.next());
+        }
+
+        assertEquals("hello input", stdout.toString(StandardCharsets.UTF_8));
+        assertEquals("oops", stderr.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void missingImageIsPulledBeforeCreatingTheContainer() {
+        String id = client.createContainer("sandbox", Map.of("Image", "python:3.12-slim"));
+
+        assertEquals("container-1", id);
+        assertEquals(List.of(
+                "POST /v1.41/containers/create?name=sandbox",
+                "POST /v1.41/images/create?fromImage=python&tag=3.12-slim",
+                "POST /v1.41/containers/create?name=sandbox"), daemon.requests);
+    }
+
+    @Test
+    void errorResponsesCarryTheDaemonMessage() {
+        DockerEngineException error = assertThrows(DockerEngineException.class, () -> client.startContainer("missing"));
+
+        assertEquals(404, error.getStatus());
+        assertEquals("No such container: missing", error.getMessage());
+    }
+
+    /**
+     * Serves canned Engine API responses on a Unix socket.
+     */
+    private static final class StubDaemon implements AutoCloseable {
+        private final ServerSocketChannel server;
+        private final AtomicInteger connections = new AtomicInteger();
+        private final List<String> requests = new CopyOnWriteArrayList<>();
+        private volatile boolean imagePulled;
+
+        StubDaemon(Path socket) throws IOException {
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Thread acceptor = new Thread(this::accept, "stub-docker-daemon");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private void accept() {
+            while (server.isOpen()) {
+                try {
+                    SocketChannel channel = server.accept();
+                    connections.incrementAndGet();
+                    Thread handler = new Thread(() -> serve(channel));
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(SocketChannel channel) {
+            try (channel) {
+                InputStream in = Channels.newInputStream(channel);
+                OutputStream out = Channels.newOutputStream(channel);
+                while (true) {
+                    String requestLine = readLine(in);
+                    if (requestLine == null) {
+                        return;
+                    }
+                    int contentLength = 0;
+                    for (String header = readLine(in); !header.isEmpty(); header = readLine(in)) {
+                        if (header.toLowerCase().startsWith("content-length:")) {
+                            contentLength = Integer.parseInt(header.substring(15).trim());
+                        }
+                    }
+                    in.readNBytes(contentLength);
+                    String[] parts = requestLine.split(" ");
+                    String request = parts[0] + " " + parts[1];
+                    if (request.endsWith("/start") && request.contains("/exec/")) {
+                        stream(in, out);
+                        return;
+                    }
+                    requests.add(request);
+                    respond(request, out);
+                }
+            } catch (IOException e) {
+                // the client went away
+            }
+        }
+
+        private void respond(String request, OutputStream out) throws IOException {
+            if (request.equals("POST /v1.41/containers/sandbox/exec")) {
+                json(out, 201, "{\"Id\":\"exec-1\"}");
+            } else if (request.equals("GET /v1.41/exec/exec-1/json")) {
+                chunked(out, "{\"Running\":false,", "\"ExitCode\":3}");
+            } else if (request.startsWith("POST /v1.41/containers/create")) {
+                if (imagePulled) {
+                    json(out, 201, "{\"Id\":\"container-1\"}");
+                } else {
+                    json(out, 404, "{\"message\":\"No such image: python:3.12-slim\"}");
+                }
+            } else if (request.startsWith("POST /v1.41/images/create")) {
+                imagePulled = true;
+                chunked(out, "{\"status\":\"Pulling\"}\r\n", "{\"status\":\"Done\"}\r\n");
+            } else {
+                json(out, 404, "{\"message\":\"No such container: missing\"}");
+            }
+        }
+
+        private static void stream(InputStream in, OutputStream out) throws IOException {
+            out.write(("HTTP/1.1 101 UPGRADED\r\n"
+                    + "Content-Type: application/vnd.docker.multiplexed-stream\r\n"
+                    + "Connection: Upgrade\r\nUpgrade: tcp\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            frame(out, 1, "hello ");
+            frame(out, 2, "oops");
+            // echo stdin back once the client half-closes it
+            frame(out, 1, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        private static void frame(OutputStream out, int type, String data) throws IOException {
+            byte[] payload = data.getBytes(StandardCharsets.UTF_8);
+            out.write(ByteBuffer.allocate(8 + payload.length)
+                    .put((byte) type).put(new byte[3]).putInt(payload.length).put(payload).array());
+        }
+
+        private static void json(OutputStream out, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            out.write(("HTTP/1.1 " + status + " Status\r\nContent-Type: application/json\r\n"
+                    + "Content-Length: " + bytes.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(bytes);
+        }
+
+        private static void chunked(OutputStream out, String... chunks) throws IOException {
+            StringBuilder response = new StringBuilder("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n"
+                    + "Transfer-Encoding: chunked\r\n\r\n");
+            for (String chunk : chunks) {
+                response.append(Integer.toHexString(chunk.length())).append("\r\n").append(chunk).append("\r\n");
+            }
+            response.append("0\r\n\r\n");
+            out.write(response.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int b = in.read(); b != '\n'; b = in.read()) {
+                if (b < 0) {
+                    return null;
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}